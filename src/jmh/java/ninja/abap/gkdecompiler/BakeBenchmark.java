@@ -0,0 +1,86 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole bakes of archives grown by Greenhouse (extraction and decompilation of
+ * every nesting level)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BakeBenchmark {
+
+	// Levels of nested archives below the root one
+	@Param({ "0", "3" })
+	int depth;
+
+	// Classes (and as many files) per archive
+	@Param({ "100", "500" })
+	int entries;
+
+	// Decompile every class, or none (extraction only)
+	@Param({ "true", "false" })
+	boolean decompile;
+
+	Path fixture;
+	Path destination;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.fixture = Files.createTempFile("gk-benchmark", ".jar");
+		Greenhouse.grow(this.fixture, this.depth, this.entries, this.entries, 4096);
+
+		Kitchen.extractIncludePatterns.clear();
+		Kitchen.extractIncludePatterns.add(Pattern.compile(".*", Pattern.CASE_INSENSITIVE));
+		Kitchen.decompileIncludePatterns.clear();
+		Kitchen.decompileIncludePatterns.add(Pattern.compile(this.decompile ? ".*" : "nothing"));
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpBake() throws IOException {
+		this.destination = Files.createTempDirectory("gk-benchmark");
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownBake() throws IOException {
+		Greenhouse.delete(this.destination);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Kitchen.extractIncludePatterns.clear();
+		Kitchen.decompileIncludePatterns.clear();
+		Files.deleteIfExists(this.fixture);
+	}
+
+	@Benchmark
+	public int bake() throws Exception {
+		Potato potato = new Potato(this.fixture.toString(), this.destination.toString());
+		potato.setSeparateLogFile(false);
+		potato.bake();
+		return potato.getHandledEntries();
+	}
+
+}
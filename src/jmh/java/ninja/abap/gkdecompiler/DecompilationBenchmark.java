@@ -0,0 +1,81 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-class costs of the decompilation: CFR itself (chop) and writing the
+ * source it produced (saveJavaFile)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DecompilationBenchmark {
+
+	// Class file size (the closest CFR class is used)
+	@Param({ "1024", "8192", "32768" })
+	int classSize;
+
+	Path destination;
+	Cucumber decompiler;
+	String classPath;
+
+	// Source of that class, for saveJavaFile
+	String packageName;
+	String className;
+	String javaSource;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.destination = Files.createTempDirectory("gk-benchmark");
+
+		Map.Entry<String, byte[]> seed = Greenhouse.classOfSize(this.classSize);
+		this.classPath = seed.getKey();
+		HeapPantry classes = new HeapPantry();
+		classes.put(this.classPath, seed.getValue());
+		this.decompiler = new Cucumber(classes, this.destination.toString());
+
+		this.decompiler.chop(this.classPath);
+		Path javaFile = this.destination.resolve(Potato.javaSourcePath(this.classPath));
+		this.javaSource = new String(Files.readAllBytes(javaFile), StandardCharsets.UTF_8);
+		this.packageName = this.classPath.substring(0, this.classPath.lastIndexOf('/')).replace('/', '.');
+		this.className = javaFile.getFileName().toString().replace(".java", "");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Greenhouse.delete(this.destination);
+	}
+
+	@Benchmark
+	public void chop() throws Exception {
+		this.decompiler.chop(this.classPath);
+	}
+
+	@Benchmark
+	public void saveJavaFile() {
+		this.decompiler.saveJavaFile(this.packageName, this.className, this.javaSource);
+	}
+
+}
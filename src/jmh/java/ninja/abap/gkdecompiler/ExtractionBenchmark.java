@@ -0,0 +1,165 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-entry costs of the extraction: reading classes into the class store,
+ * writing files, deciding what to do with an entry and listing it in the CSV
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractionBenchmark {
+
+	static final InputStream EMPTY_STREAM = new ByteArrayInputStream(new byte[0]);
+
+	@Param({ "2048", "16384", "131072" })
+	int entrySize;
+
+	Path destination;
+	Potato potato;
+	DryPotato dryPotato;
+	byte[] contents;
+
+	// Entries of a typical GK archive (see setUpEntries), handled in turn
+	List<ZipEntry> entries;
+	int nextEntry;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.destination = Files.createTempDirectory("gk-benchmark");
+		this.potato = new Potato("benchmark.jar", this.destination.toString());
+		this.potato.createCsvFile();
+
+		this.contents = new byte[this.entrySize];
+		new Random(42).nextBytes(this.contents);
+
+		setUpEntries();
+	}
+
+	/**
+	 * Same patterns as the GUI defaults, plus a few typical exclusions
+	 */
+	void setUpEntries() throws IOException {
+		Kitchen.extractIncludePatterns.clear();
+		Kitchen.extractIncludePatterns.add(Pattern.compile(".*", Pattern.CASE_INSENSITIVE));
+		Kitchen.extractExcludePatterns.clear();
+		Kitchen.extractExcludePatterns.add(Pattern.compile(".*[.]properties", Pattern.CASE_INSENSITIVE));
+		Kitchen.extractExcludePatterns.add(Pattern.compile("META-INF/maven/.+", Pattern.CASE_INSENSITIVE));
+		Kitchen.decompileIncludePatterns.clear();
+		Kitchen.decompileIncludePatterns.add(Pattern.compile(".*gk.+", Pattern.CASE_INSENSITIVE));
+		Kitchen.decompileIncludePatterns.add(Pattern.compile("org[.]benf[.]cfr[.]reader[.]api[.].+"));
+		Kitchen.decompileExcludePatterns.clear();
+		Kitchen.decompileExcludePatterns.add(Pattern.compile(".*[$][0-9]+", Pattern.CASE_INSENSITIVE));
+		this.potato.extractColander = new Colander(Kitchen.extractIncludePatterns, Kitchen.extractExcludePatterns,
+				'/');
+		this.potato.decompileColander = new Colander(Kitchen.decompileIncludePatterns,
+				Kitchen.decompileExcludePatterns, '.');
+		this.dryPotato = new DryPotato();
+		this.dryPotato.extractColander = this.potato.extractColander;
+		this.dryPotato.decompileColander = this.potato.decompileColander;
+
+		this.entries = new ArrayList<>();
+		for (Map.Entry<String, byte[]> seed : Greenhouse.seeds()) {
+			this.entries.add(new ZipEntry(seed.getKey()));
+			this.entries.add(new ZipEntry("WEB-INF/classes/com/sap/gk/" + seed.getKey()));
+		}
+		for (int i = 0; i < 1000; i++) {
+			this.entries.add(new ZipEntry("META-INF/resources/img/icon-" + i + ".png"));
+			this.entries.add(new ZipEntry("META-INF/maven/com.sap/gk-" + i + "/pom.properties"));
+			this.entries.add(new ZipEntry("WEB-INF/config/module-" + i + ".xml"));
+		}
+		Collections.shuffle(this.entries, new Random(42));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		this.potato.cleanup();
+		Kitchen.extractIncludePatterns.clear();
+		Kitchen.extractExcludePatterns.clear();
+		Kitchen.decompileIncludePatterns.clear();
+		Kitchen.decompileExcludePatterns.clear();
+		Greenhouse.delete(this.destination);
+	}
+
+	@Benchmark
+	public int extractClass() throws IOException {
+		this.potato.extractClass("a/b/Benchmark.class", new ByteArrayInputStream(this.contents), this.entrySize);
+		return this.potato.classFiles.size();
+	}
+
+	@Benchmark
+	public int extractClassUnknownSize() throws IOException {
+		this.potato.extractClass("a/b/Benchmark.class", new ByteArrayInputStream(this.contents), -1);
+		return this.potato.classFiles.size();
+	}
+
+	@Benchmark
+	public void extractFile() throws IOException {
+		this.potato.extractFile("META-INF/resources/benchmark.bin", new ByteArrayInputStream(this.contents));
+	}
+
+	/**
+	 * Pattern matching only: the chosen action (extractClass/extractFile) is left
+	 * out, see DryPotato
+	 */
+	@Benchmark
+	public void handleZipEntry() throws Exception {
+		ZipEntry entry = this.entries.get(this.nextEntry++ % this.entries.size());
+		this.dryPotato.handleZipEntry("benchmark.jar", Collections.emptyList(), 0, EMPTY_STREAM, entry);
+	}
+
+	@Benchmark
+	public void addCsvEntry() throws IOException {
+		ZipEntry entry = this.entries.get(this.nextEntry++ % this.entries.size());
+		this.potato.addCsvEntry(entry.getName(), "benchmark.jar > lib/benchmark-\"nested\".jar", true, false);
+	}
+
+	/**
+	 * Potato that decides what to do with every entry, but does not do it
+	 */
+	static class DryPotato extends Potato {
+
+		DryPotato() {
+			super("benchmark.jar", "dummy-destination-path");
+		}
+
+		@Override
+		void extractFile(String relativePath, InputStream inStream) {
+		}
+
+		@Override
+		void extractClass(String relativePath, InputStream inStream, long size) {
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.benf.cfr.reader.api.CfrDriver;
+
+/**
+ * Grows archives for the benchmarks
+ *
+ * An archive holds a number of classes and files, plus (down to the given
+ * depth) a nested archive built the same way: root.jar > lib/level-1.jar >
+ * lib/level-2.jar > ...
+ *
+ * Classes are real ones taken from the CFR jar, so they decompile like the
+ * classes of an actual application (each level gets different ones, as long as
+ * there are enough); files are random bytes.
+ *
+ * Usage: Greenhouse target.jar [depth] [classes per archive] [files per archive]
+ * [file size in bytes]
+ */
+public class Greenhouse {
+
+	// Classes of the CFR jar, smallest first
+	static List<Map.Entry<String, byte[]>> seeds;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println(
+					"Usage: Greenhouse target.jar [depth] [classes per archive] [files per archive] [file size]");
+			System.exit(2);
+		}
+
+		Path target = Paths.get(args[0]);
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		int classes = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		int files = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+		int fileSize = args.length > 4 ? Integer.parseInt(args[4]) : 4096;
+		grow(target, depth, classes, files, fileSize);
+		System.out.println("Created " + target + " (" + Files.size(target) / 1024 + " KB)");
+	}
+
+	/**
+	 * Writes a root archive with (depth) levels of nested archives
+	 */
+	public static void grow(Path target, int depth, int classes, int files, int fileSize) throws IOException {
+		if (target.getParent() != null)
+			Files.createDirectories(target.getParent());
+		try (OutputStream out = Files.newOutputStream(target)) {
+			writeArchive(out, 0, depth, classes, files, fileSize);
+		}
+	}
+
+	static void writeArchive(OutputStream out, int level, int depth, int classes, int files, int fileSize)
+			throws IOException {
+		List<Map.Entry<String, byte[]>> seeds = seeds();
+		Random random = new Random(level);
+
+		ZipOutputStream zip = new ZipOutputStream(out);
+		zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+		zip.write("Manifest-Version: 1.0\r\n\r\n".getBytes());
+
+		for (int i = 0; i < Math.min(classes, seeds.size()); i++) {
+			// Spread over the whole range of sizes
+			Map.Entry<String, byte[]> seed = seeds.get((int) (((long) level * classes + i) * 7919 % seeds.size()));
+			zip.putNextEntry(new ZipEntry(seed.getKey()));
+			zip.write(seed.getValue());
+		}
+
+		byte[] contents = new byte[fileSize];
+		for (int i = 0; i < files; i++) {
+			random.nextBytes(contents);
+			zip.putNextEntry(new ZipEntry("META-INF/resources/level-" + level + "/file-" + i + ".txt"));
+			zip.write(contents);
+		}
+
+		if (level < depth) {
+			// Nested archives are written with data descriptors (size unknown upfront),
+			// like most build tools do
+			ByteArrayOutputStream nested = new ByteArrayOutputStream();
+			writeArchive(nested, level + 1, depth, classes, files, fileSize);
+			zip.putNextEntry(new ZipEntry("lib/level-" + (level + 1) + ".jar"));
+			nested.writeTo(zip);
+		}
+		zip.finish();
+	}
+
+	/**
+	 * @return the CFR (outer) class closest to the given size, as (path, bytes)
+	 */
+	public static Map.Entry<String, byte[]> classOfSize(int size) throws IOException {
+		return seeds().stream().filter(seed -> seed.getKey().indexOf('$') < 0).min(Comparator.comparingInt(seed -> Math.abs(seed.getValue().length - size))).get();
+	}
+
+	/**
+	 * Deletes a directory tree (benchmark output)
+	 */
+	public static void delete(Path directory) throws IOException {
+		if (!Files.exists(directory))
+			return;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+				Files.delete(path);
+		}
+	}
+
+	static synchronized List<Map.Entry<String, byte[]>> seeds() throws IOException {
+		if (seeds != null)
+			return seeds;
+
+		Path cfrJar;
+		try {
+			cfrJar = Paths.get(CfrDriver.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (Exception e) {
+			throw new IOException("CFR jar not found", e);
+		}
+
+		List<Map.Entry<String, byte[]>> classes = new ArrayList<>();
+		try (ZipFile zipFile = new ZipFile(cfrJar.toFile())) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (!entry.getName().endsWith(".class"))
+					continue;
+				try (InputStream in = zipFile.getInputStream(entry)) {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.max(32, entry.getSize()));
+					byte[] buffer = new byte[8192];
+					int read;
+					while ((read = in.read(buffer)) != -1)
+						bytes.write(buffer, 0, read);
+					classes.add(new AbstractMap.SimpleImmutableEntry<>(entry.getName(), bytes.toByteArray()));
+				}
+			}
+		}
+		classes.sort(Comparator.comparingInt(seed -> seed.getValue().length));
+		seeds = Collections.unmodifiableList(classes);
+		return seeds;
+	}
+
+}
@@ -0,0 +1,84 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write-behind of many small files (see Dumbwaiter): a few I/O threads, or a
+ * virtual thread per file (Java 21 and later - the same as the former
+ * otherwise). Slow filesystems (e.g. NFS) are where they differ, so the
+ * directory can be given, e.g.: -p directory=/mnt/nfs/gk-benchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutputBenchmark {
+
+	// Where files are written ("" = a temp. directory)
+	@Param({ "" })
+	String directory;
+
+	@Param({ "2000" })
+	int files;
+
+	@Param({ "4096" })
+	int fileSize;
+
+	@Param({ "true", "false" })
+	boolean virtualThreads;
+
+	byte[] contents;
+	Path destination;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.contents = new byte[this.fileSize];
+		new Random(1).nextBytes(this.contents);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpWrites() throws IOException {
+		this.destination = this.directory.isEmpty() ? Files.createTempDirectory("gk-benchmark")
+				: Files.createTempDirectory(Paths.get(this.directory), "gk-benchmark");
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownWrites() throws IOException {
+		Greenhouse.delete(this.destination);
+	}
+
+	@Benchmark
+	public long write() throws IOException {
+		ExecutorService runners = this.virtualThreads ? Runners.hire("benchmark") : null;
+		Dumbwaiter waiter = new Dumbwaiter(Kitchen.outputThreads, Kitchen.outputQueueDepth, Kitchen.outputQueueBytes,
+				runners);
+		for (int i = 0; i < this.files; i++) {
+			waiter.send(this.destination.resolve("p" + i % 50 + "/File" + i + ".java"), this.contents.clone());
+		}
+		waiter.close();
+		return waiter.servedOrders.sum();
+	}
+
+}
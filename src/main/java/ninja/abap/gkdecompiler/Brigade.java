@@ -0,0 +1,443 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decompiles batches of classes in child JVMs (sous chefs, see SousChef)
+ * instead of this one, so CFR's allocations and GC are spread over several heaps
+ *
+ * Each child is started with the same Java and class path, and is talked to by
+ * a thread of its own here (a hand) over its stdin/stdout: batches and the
+ * classes CFR looks up go in, sources and outcomes come out - and are written,
+ * counted and reported here like those decompiled in this JVM. A child that
+ * dies is started again (up to MAX_RESTARTS times) and its unfinished batches
+ * go back in the queue. Those are sent alone from then on, to tell the batch it
+ * died on from the ones that were only next to it: a batch a child died on
+ * alone MAX_ATTEMPTS times is given up on. Whatever is left once no child can
+ * be started anymore is decompiled in this JVM.
+ */
+public class Brigade implements AutoCloseable {
+	private final Logger log = Logger.getLogger(Brigade.class.getName());
+
+	static final int MAX_RESTARTS = 3;
+	static final int MAX_ATTEMPTS = 2;
+
+	// Batches handed to a child at a time, so it does not wait for the next one
+	static final int BATCHES_IN_FLIGHT = 2;
+
+	// Messages to a child (see SousChef)
+	static final byte INIT = 'I';
+	static final byte BATCH = 'B';
+	static final byte CLASS = 'C';
+	static final byte QUIT = 'Q';
+
+	// Messages from a child
+	static final byte READY = 'R';
+	static final byte FETCH = 'F';
+	static final byte SOURCE = 'S';
+	static final byte TIMED_OUT = 'T';
+	static final byte DONE = 'D';
+
+	// One line per log record of a child (see Hand.forwardLog)
+	static final String LOG_FORMAT = "%4$s: %5$s%6$s%n";
+
+	final int size;
+	final int threads;
+	final Cucumber decompiler;
+
+	// Batches waiting for a child, batches not done yet and hands still talking to
+	// a child (guarded by this)
+	final Deque<Order> queue = new ArrayDeque<>();
+	int outstanding = 0;
+	int workingHands = 0;
+
+	final List<Hand> hands = new ArrayList<>();
+	final AtomicInteger orderCount = new AtomicInteger(0);
+	final AtomicInteger failures = new AtomicInteger(0);
+	final AtomicInteger restarts = new AtomicInteger(0);
+
+	/**
+	 * @param size       number of child JVMs
+	 * @param threads    decompiler threads of each child
+	 * @param decompiler where the classes come from and the sources go to (and
+	 *                   what decompiles batches no child is left for)
+	 */
+	public Brigade(int size, int threads, Cucumber decompiler) {
+		this.size = Math.max(1, size);
+		this.threads = Math.max(1, threads);
+		this.decompiler = decompiler;
+	}
+
+	/**
+	 * Decompiles all batches, waiting until they are done
+	 *
+	 * @return the number of classes that failed
+	 */
+	public int cookAll(List<List<String>> batches) throws InterruptedException {
+		synchronized (this) {
+			for (List<String> batch : batches) {
+				this.queue.add(new Order(this.orderCount.incrementAndGet(), batch));
+			}
+			this.outstanding += batches.size();
+			for (int i = this.hands.size(); i < this.size; i++) {
+				Hand hand = new Hand(i + 1);
+				this.hands.add(hand);
+				this.workingHands++;
+				hand.thread.start();
+			}
+
+			while (this.outstanding > 0 && this.workingHands > 0)
+				wait();
+		}
+
+		// No child left => the rest is decompiled here
+		Order order;
+		while ((order = nextOrder()) != null) {
+			log.warning("No decompiler process left - decompiling batch " + order.id + " in this one");
+			this.failures.addAndGet(this.decompiler.chopBatch(order.paths));
+			finished(order);
+		}
+		return this.failures.getAndSet(0);
+	}
+
+	synchronized Order nextOrder() {
+		return this.queue.poll();
+	}
+
+	synchronized void finished(Order order) {
+		this.outstanding--;
+		if (this.decompiler.progress != null)
+			this.decompiler.progress.done(order.paths.size());
+		notifyAll();
+	}
+
+	/**
+	 * Puts the batches of a child that died back in the queue, in their order (or
+	 * gives up on them)
+	 */
+	synchronized void requeue(Map<Integer, Order> orders) {
+		// Only a batch the child died on alone is to blame
+		boolean alone = orders.size() == 1;
+		List<Order> requeued = new ArrayList<>(orders.values());
+		requeued.sort((a, b) -> Integer.compare(b.id, a.id));
+		for (Order order : requeued) {
+			order.suspect = true;
+			if (!alone || ++order.attempts < MAX_ATTEMPTS) {
+				this.queue.addFirst(order);
+				continue;
+			}
+			log.severe("Giving up on batch " + order.id + " - a decompiler process died on it " + order.attempts
+					+ " times: " + order.paths);
+			this.failures.addAndGet(order.paths.size());
+			this.outstanding--;
+			if (this.decompiler.progress != null)
+				this.decompiler.progress.done(order.paths.size());
+		}
+		orders.clear();
+		notifyAll();
+	}
+
+	synchronized boolean isDone() {
+		return this.outstanding <= 0;
+	}
+
+	/**
+	 * @return the command line of a child: same Java and class path as this JVM
+	 */
+	List<String> command() {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("-Djava.util.logging.SimpleFormatter.format=" + LOG_FORMAT);
+		command.add("-XX:+ExitOnOutOfMemoryError"); // (to be started again)
+		if (!Kitchen.workerJvmOptions.trim().isEmpty())
+			command.addAll(Arrays.asList(Kitchen.workerJvmOptions.trim().split("\\s+")));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(SousChef.class.getName());
+		return command;
+	}
+
+	/**
+	 * Stops the children that are still running (only if something went wrong)
+	 */
+	@Override
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			this.queue.clear();
+			this.outstanding = 0;
+			notifyAll();
+		}
+		for (Hand hand : this.hands) {
+			Process process = hand.process;
+			if (process != null)
+				process.destroy();
+		}
+		for (Hand hand : this.hands) {
+			hand.thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		this.hands.clear();
+		if (this.restarts.get() > 0)
+			log.warning("Decompiler processes were restarted " + this.restarts.get() + " times");
+	}
+
+	/**
+	 * Thread talking to one child, starting it again when it dies
+	 */
+	class Hand implements Runnable {
+		final String name;
+		final Thread thread;
+
+		// Batches sent to the child and not done yet
+		final Map<Integer, Order> inFlight = new HashMap<>();
+
+		volatile Process process;
+		DataOutputStream toChef;
+
+		Hand(int number) {
+			this.name = "sous-chef-" + number;
+			this.thread = new Thread(this, this.name);
+			this.thread.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int starts = 1;; starts++) {
+					try {
+						if (serve())
+							return;
+						log.warning("Decompiler process " + this.name + " exited with code " + this.process.waitFor()
+								+ ", " + this.inFlight.size() + " batches unfinished");
+					} catch (IOException e) {
+						log.log(Level.WARNING, "Decompiler process " + this.name + " failed", e);
+					} finally {
+						if (this.process != null)
+							this.process.destroyForcibly();
+						requeue(this.inFlight);
+					}
+
+					if (isDone())
+						return;
+					if (starts > MAX_RESTARTS) {
+						log.severe("Decompiler process " + this.name + " died too often - not starting it again");
+						return;
+					}
+					Brigade.this.restarts.incrementAndGet();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				synchronized (Brigade.this) {
+					Brigade.this.workingHands--;
+					Brigade.this.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Starts the child and keeps it busy until everything is done
+		 *
+		 * @return false if the child died
+		 */
+		boolean serve() throws IOException, InterruptedException {
+			this.process = new ProcessBuilder(command()).start();
+			forwardLog(this.process);
+			this.toChef = new DataOutputStream(new BufferedOutputStream(this.process.getOutputStream(), 64 * 1024));
+			DataInputStream fromChef = new DataInputStream(
+					new BufferedInputStream(this.process.getInputStream(), 64 * 1024));
+
+			try {
+				this.toChef.writeByte(INIT);
+				this.toChef.writeInt(Brigade.this.threads);
+				this.toChef.writeLong(Kitchen.decompileTimeoutMillis);
+				this.toChef.writeBoolean(Kitchen.retryTimedOutClasses);
+				this.toChef.flush();
+
+				// No batch is sent before the child is up (a child that does not even start
+				// should not count against them)
+				if (fromChef.readByte() != READY)
+					throw new IOException("Unexpected answer from " + this.name);
+
+				while (fill()) {
+					this.toChef.flush();
+					receive(fromChef);
+				}
+			} catch (EOFException e) {
+				return false;
+			}
+
+			this.toChef.writeByte(QUIT);
+			this.toChef.flush();
+			this.process.waitFor();
+			return true;
+		}
+
+		/**
+		 * Sends batches until the child has BATCHES_IN_FLIGHT of them, waiting for
+		 * some if it has none
+		 *
+		 * @return false once everything is done
+		 */
+		boolean fill() throws IOException, InterruptedException {
+			for (;;) {
+				Order order;
+				synchronized (Brigade.this) {
+					while (this.inFlight.isEmpty() && Brigade.this.queue.isEmpty() && Brigade.this.outstanding > 0)
+						Brigade.this.wait();
+					if (this.inFlight.isEmpty() && Brigade.this.outstanding <= 0)
+						return false;
+					if (this.inFlight.size() >= BATCHES_IN_FLIGHT || Brigade.this.queue.isEmpty())
+						return true;
+					if (!this.inFlight.isEmpty() && (Brigade.this.queue.peek().suspect || hasSuspect()))
+						return true; // (sent alone)
+					order = Brigade.this.queue.poll();
+				}
+
+				// Sources from the decompilation cache are written here
+				List<String> paths = Brigade.this.decompiler.thaw(order.paths);
+				if (paths.isEmpty()) {
+					finished(order);
+					continue;
+				}
+
+				this.inFlight.put(order.id, order);
+				this.toChef.writeByte(BATCH);
+				this.toChef.writeInt(order.id);
+				this.toChef.writeInt(paths.size());
+				for (String path : paths) {
+					this.toChef.writeUTF(path);
+					writeBytes(Brigade.this.decompiler.classes.get(path));
+				}
+			}
+		}
+
+		boolean hasSuspect() {
+			for (Order order : this.inFlight.values()) {
+				if (order.suspect)
+					return true;
+			}
+			return false;
+		}
+
+		void receive(DataInputStream fromChef) throws IOException {
+			byte message = fromChef.readByte();
+			switch (message) {
+			case FETCH:
+				int fetchId = fromChef.readInt();
+				byte[] contents;
+				try {
+					contents = Brigade.this.decompiler.readClassContents(fromChef.readUTF());
+				} catch (EOFException e) {
+					throw e;
+				} catch (IOException e) {
+					contents = null; // (CFR will complain)
+				}
+				this.toChef.writeByte(CLASS);
+				this.toChef.writeInt(fetchId);
+				writeBytes(contents);
+				break;
+
+			case SOURCE:
+				String packageName = fromChef.readUTF();
+				String className = fromChef.readUTF();
+				long latencyNanos = fromChef.readLong();
+				byte[] javaBytes = new byte[fromChef.readInt()];
+				fromChef.readFully(javaBytes);
+				Brigade.this.decompiler.served(packageName, className, latencyNanos,
+						new String(javaBytes, StandardCharsets.UTF_8));
+				break;
+
+			case TIMED_OUT:
+				String path = fromChef.readUTF();
+				boolean recovered = fromChef.readBoolean();
+				if (Brigade.this.decompiler.eggTimer != null)
+					Brigade.this.decompiler.eggTimer.timedOut(path, recovered);
+				break;
+
+			case DONE:
+				Order order = this.inFlight.remove(fromChef.readInt());
+				Brigade.this.failures.addAndGet(fromChef.readInt());
+				if (order != null)
+					finished(order);
+				break;
+
+			default:
+				throw new IOException("Unexpected message from " + this.name + ": " + message);
+			}
+		}
+
+		void writeBytes(byte[] contents) throws IOException {
+			if (contents == null) {
+				this.toChef.writeInt(-1);
+				return;
+			}
+			this.toChef.writeInt(contents.length);
+			this.toChef.write(contents);
+		}
+
+		/**
+		 * Logs what the child logs (on its stderr, one line per record)
+		 */
+		void forwardLog(Process process) {
+			Thread forwarder = new Thread(() -> {
+				try (BufferedReader reader = new BufferedReader(
+						new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+					Level level = Level.INFO;
+					String line;
+					while ((line = reader.readLine()) != null) {
+						int colon = line.indexOf(": ");
+						if (colon > 0) {
+							try {
+								level = Level.parse(line.substring(0, colon));
+								line = line.substring(colon + 2);
+							} catch (IllegalArgumentException e) {
+								// (continuation of the last record, e.g. a stack trace)
+							}
+						}
+						log.log(level, "[" + this.name + "] " + line);
+					}
+				} catch (IOException e) {
+					log.log(Level.FINE, "Log of " + this.name + " closed", e);
+				}
+			}, this.name + "-log");
+			forwarder.setDaemon(true);
+			forwarder.start();
+		}
+	}
+
+	/**
+	 * A batch, and how many children died while working on it alone
+	 */
+	static class Order {
+		final int id;
+		final List<String> paths;
+		int attempts = 0;
+		boolean suspect = false; // a child died with it in flight => sent alone
+
+		Order(int id, List<String> paths) {
+			this.id = id;
+			this.paths = paths;
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class store that keeps classes in the heap while there is heap to spare, and
+ * spills them to a MappedPantry once the thermostat says the heap is getting
+ * warm (see Thermostat)
+ */
+public class Cellar implements Pantry {
+
+	final HeapPantry heap = new HeapPantry();
+	final Thermostat thermostat;
+	final String destinationPath;
+
+	// Created on the first spill
+	volatile MappedPantry disk;
+
+	final LongAdder spilledClasses = new LongAdder();
+
+	public Cellar(Thermostat thermostat, String destinationPath) {
+		this.thermostat = thermostat;
+		this.destinationPath = destinationPath;
+	}
+
+	@Override
+	public void put(String path, byte[] contents) throws IOException {
+		if (!this.thermostat.isWarm()) {
+			this.heap.put(path, contents);
+			if (this.disk != null)
+				this.disk.remove(path);
+			return;
+		}
+
+		disk().put(path, contents);
+		this.heap.remove(path);
+		this.spilledClasses.increment();
+	}
+
+	MappedPantry disk() throws IOException {
+		if (this.disk == null) {
+			synchronized (this) {
+				if (this.disk == null)
+					this.disk = new MappedPantry(this.destinationPath);
+			}
+		}
+		return this.disk;
+	}
+
+	@Override
+	public byte[] get(String path) throws IOException {
+		byte[] contents = this.heap.get(path);
+		if (contents == null && this.disk != null)
+			contents = this.disk.get(path);
+		return contents;
+	}
+
+	@Override
+	public void remove(String path) {
+		this.heap.remove(path);
+		if (this.disk != null)
+			this.disk.remove(path);
+	}
+
+	/**
+	 * @return a copy of the paths (of both the heap and the disk)
+	 */
+	@Override
+	public Set<String> paths() {
+		Set<String> paths = new HashSet<>(this.heap.paths());
+		if (this.disk != null)
+			paths.addAll(this.disk.paths());
+		return paths;
+	}
+
+	@Override
+	public int size() {
+		return this.heap.size() + (this.disk != null ? this.disk.size() : 0);
+	}
+
+	@Override
+	public void clear() {
+		this.heap.clear();
+		if (this.disk != null)
+			this.disk.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.heap.close();
+		if (this.disk != null)
+			this.disk.close();
+	}
+
+	@Override
+	public String toString() {
+		return "Classes spilled to disk: " + this.spilledClasses.sum();
+	}
+
+}
@@ -0,0 +1,390 @@
+package ninja.abap.gkdecompiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Include/exclude pattern lists compiled into a faster matcher
+ *
+ * Most Kitchen patterns are really globs (".*", "com[.]sap[.].+", ".*gk.+"),
+ * so each pattern is parsed into literals and ".*"/".+" wildcards: literal
+ * prefixes and suffixes go into tries, which are walked once per name for all
+ * of them, other wildcard/literal sequences are matched with indexOf, and only
+ * patterns that need more than that are left to java.util.regex.
+ *
+ * Decisions are also memoized per directory (or package), whenever the
+ * directory alone decides them - e.g. everything under "com/sap/gk/" for ".*gk.+".
+ */
+public class Colander {
+	// Memoized decisions
+	static final byte ACCEPT = 1;
+	static final byte REJECT = 2;
+	static final byte DEPENDS = 3;
+	static final int MAX_MEMOIZED = 100_000;
+
+	final Mesh include;
+	final Mesh exclude;
+	final char separator;
+	final Map<String, Byte> decisions = new ConcurrentHashMap<>();
+
+	/**
+	 * @param separator '/' for paths, '.' for class names
+	 */
+	public Colander(List<Pattern> includePatterns, List<Pattern> excludePatterns, char separator) {
+		this.include = new Mesh(includePatterns);
+		this.exclude = new Mesh(excludePatterns);
+		this.separator = separator;
+	}
+
+	/**
+	 * @return true if the name matches an include pattern and no exclude pattern
+	 */
+	public boolean accepts(String name) {
+		// (the wildcards here match any char, while "." does not match line
+		// terminators)
+		if (hasLineTerminator(name))
+			return this.include.matchesRegex(name) && !this.exclude.matchesRegex(name);
+
+		// (directory decisions assume at least 1 more char after the directory)
+		String directory = name.substring(0, name.lastIndexOf(this.separator) + 1);
+		Byte decision = directory.length() < name.length() ? this.decisions.get(directory) : Byte.valueOf(DEPENDS);
+		if (decision == null) {
+			decision = decide(directory);
+			if (this.decisions.size() < MAX_MEMOIZED)
+				this.decisions.put(directory, decision);
+		}
+		if (decision != DEPENDS)
+			return decision == ACCEPT;
+
+		String folded = fold(name);
+		return this.include.matches(name, folded) && !this.exclude.matches(name, folded);
+	}
+
+	byte decide(String directory) {
+		String folded = fold(directory);
+		Boolean included = this.include.decide(directory, folded);
+		Boolean excluded = this.exclude.decide(directory, folded);
+		if (Boolean.FALSE.equals(included) || Boolean.TRUE.equals(excluded))
+			return REJECT;
+		if (Boolean.TRUE.equals(included) && Boolean.FALSE.equals(excluded))
+			return ACCEPT;
+		return DEPENDS;
+	}
+
+	/**
+	 * @return "a/b/C" for "a/b/C.class" (any case), null if it is not a class file
+	 */
+	public static String classPathOf(String entryName) {
+		return hasExtension(entryName, ".class") ? entryName.substring(0, entryName.length() - ".class".length())
+				: null;
+	}
+
+	/**
+	 * Same as Kitchen.ARCHIVE_EXTENSION_REGEX
+	 */
+	public static boolean isArchive(String entryName) {
+		return hasExtension(entryName, ".jar") || hasExtension(entryName, ".war") || hasExtension(entryName, ".zip");
+	}
+
+	static boolean hasLineTerminator(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+				return true;
+		}
+		return false;
+	}
+
+	static boolean hasExtension(String name, String extension) {
+		return name.length() > extension.length()
+				&& name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length());
+	}
+
+	/**
+	 * Case folding of Pattern.CASE_INSENSITIVE (without UNICODE_CASE): US-ASCII only
+	 */
+	static String fold(String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				char[] chars = text.toCharArray();
+				for (int j = i; j < chars.length; j++) {
+					if (chars[j] >= 'A' && chars[j] <= 'Z')
+						chars[j] += 'a' - 'A';
+				}
+				return new String(chars);
+			}
+		}
+		return text;
+	}
+
+	/**
+	 * One pattern list
+	 */
+	static class Mesh {
+		final List<Pattern> patterns;
+		final List<Rule> rules = new ArrayList<>();
+
+		// Prefix and suffix rules, [0] = case-sensitive, [1] = case-insensitive
+		final Trie[] prefixes = { new Trie(), new Trie() };
+		final Trie[] suffixes = { new Trie(), new Trie() };
+		final List<Rule> others = new ArrayList<>();
+
+		Mesh(List<Pattern> patterns) {
+			this.patterns = new ArrayList<>(patterns);
+			for (Pattern pattern : patterns) {
+				Rule rule = Rule.compile(pattern);
+				this.rules.add(rule);
+				int trie = rule.caseInsensitive ? 1 : 0;
+				if (rule.isPrefix())
+					this.prefixes[trie].add((String) rule.tokens.get(0), false, (Integer) rule.tokens.get(1));
+				else if (rule.isSuffix())
+					this.suffixes[trie].add((String) rule.tokens.get(1), true, (Integer) rule.tokens.get(0));
+				else
+					this.others.add(rule);
+			}
+		}
+
+		boolean matches(String name, String folded) {
+			if (this.prefixes[0].matchesPrefix(name) || this.prefixes[1].matchesPrefix(folded)
+					|| this.suffixes[0].matchesSuffix(name) || this.suffixes[1].matchesSuffix(folded))
+				return true;
+
+			for (Rule rule : this.others) {
+				if (rule.matches(rule.caseInsensitive ? folded : name))
+					return true;
+			}
+			return false;
+		}
+
+		boolean matchesRegex(String name) {
+			return this.patterns.stream().anyMatch(pattern -> pattern.matcher(name).matches());
+		}
+
+		/**
+		 * @return whether any pattern matches all names in the directory (TRUE), none
+		 *         of them (FALSE), or it depends on the name (null)
+		 */
+		Boolean decide(String directory, String folded) {
+			boolean allFalse = true;
+			for (Rule rule : this.rules) {
+				Boolean decision = rule.decide(rule.caseInsensitive ? folded : directory);
+				if (Boolean.TRUE.equals(decision))
+					return true;
+				if (decision == null)
+					allFalse = false;
+			}
+			return allFalse ? false : null;
+		}
+	}
+
+	/**
+	 * A pattern, parsed into literals (String) and wildcards (Integer: minimum
+	 * number of chars) - or not (regex != null)
+	 */
+	static class Rule {
+		final List<Object> tokens;
+		final boolean caseInsensitive;
+		final Pattern regex;
+
+		Rule(List<Object> tokens, boolean caseInsensitive, Pattern regex) {
+			this.tokens = tokens;
+			this.caseInsensitive = caseInsensitive;
+			this.regex = regex;
+		}
+
+		static Rule compile(Pattern pattern) {
+			boolean caseInsensitive = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+			List<Object> tokens = (pattern.flags() & ~Pattern.CASE_INSENSITIVE) == 0
+					? parse(pattern.pattern(), caseInsensitive)
+					: null;
+			return tokens != null ? new Rule(tokens, caseInsensitive, null) : new Rule(null, false, pattern);
+		}
+
+		/**
+		 * @return null if it takes more than literals, ".*" and ".+"
+		 */
+		static List<Object> parse(String regex, boolean caseInsensitive) {
+			List<Object> tokens = new ArrayList<>();
+			StringBuilder literal = new StringBuilder();
+			int wildcard = -1;
+			for (int i = 0; i < regex.length(); i++) {
+				char c = regex.charAt(i);
+				char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+				char literalChar;
+				if (c == '.' && (next == '*' || next == '+')) {
+					if (literal.length() > 0) {
+						tokens.add(literal.toString());
+						literal.setLength(0);
+					}
+					wildcard = Math.max(wildcard, 0) + (next == '+' ? 1 : 0);
+					i++;
+					continue;
+				} else if (c == '\\' && next != 0 && !Character.isLetterOrDigit(next)) {
+					literalChar = next; // e.g. "\."
+					i++;
+				} else if (c == '[' && i + 2 < regex.length() && regex.charAt(i + 2) == ']' && next != '^'
+						&& next != '\\' && next != '[' && next != ']') {
+					literalChar = next; // e.g. "[.]"
+					i += 2;
+				} else if ("\\.[]{}()*+?^$|".indexOf(c) >= 0) {
+					return null;
+				} else {
+					literalChar = c;
+				}
+
+				// Also a quantifier after it, or a non-ASCII char that is matched
+				// case-insensitively => not simple enough
+				if (i + 1 < regex.length() && "*+?{".indexOf(regex.charAt(i + 1)) >= 0
+						|| caseInsensitive && literalChar >= 0x80)
+					return null;
+
+				if (wildcard >= 0) {
+					tokens.add(wildcard);
+					wildcard = -1;
+				}
+				literal.append(caseInsensitive ? fold(String.valueOf(literalChar)) : String.valueOf(literalChar));
+			}
+			if (literal.length() > 0)
+				tokens.add(literal.toString());
+			if (wildcard >= 0)
+				tokens.add(wildcard);
+			return tokens;
+		}
+
+		boolean isPrefix() {
+			return this.tokens != null && this.tokens.size() == 2 && this.tokens.get(0) instanceof String;
+		}
+
+		boolean isSuffix() {
+			return this.tokens != null && this.tokens.size() == 2 && this.tokens.get(0) instanceof Integer;
+		}
+
+		/**
+		 * @param name already folded for case-insensitive rules
+		 */
+		boolean matches(String name) {
+			if (this.regex != null)
+				return this.regex.matcher(name).matches();
+
+			// Leftmost match of each literal leaves the most room for the next ones
+			int position = 0;
+			int gap = -1; // minimum chars of the wildcard before the current literal (-1 = none)
+			for (int t = 0; t < this.tokens.size(); t++) {
+				Object token = this.tokens.get(t);
+				if (token instanceof Integer) {
+					gap = (Integer) token;
+					continue;
+				}
+
+				String literal = (String) token;
+				if (gap < 0) {
+					if (!name.startsWith(literal, position))
+						return false;
+					position += literal.length();
+				} else if (t == this.tokens.size() - 1) {
+					int start = name.length() - literal.length();
+					if (start < position + gap || !name.startsWith(literal, start))
+						return false;
+					position = name.length();
+				} else {
+					int start = name.indexOf(literal, position + gap);
+					if (start < 0)
+						return false;
+					position = start + literal.length();
+				}
+				gap = -1;
+			}
+			return gap < 0 ? position == name.length() : name.length() - position >= gap;
+		}
+
+		/**
+		 * @param directory everything up to (and including) the last separator of
+		 *                  names, which always have at least 1 more char
+		 * @return whether the rule matches all names in the directory (TRUE), none of
+		 *         them (FALSE), or it depends on the name (null)
+		 */
+		Boolean decide(String directory) {
+			if (this.regex != null) {
+				// The regex engine did not even need the rest of the name to fail
+				Matcher matcher = this.regex.matcher(directory);
+				return !matcher.matches() && !matcher.hitEnd() ? false : null;
+			}
+
+			Object first = this.tokens.isEmpty() ? "" : this.tokens.get(0);
+			if (first instanceof String) {
+				// Anchored literal: the directory either starts with it or goes elsewhere
+				String literal = (String) first;
+				if (literal.length() <= directory.length() ? !directory.startsWith(literal)
+						: !literal.startsWith(directory))
+					return false;
+				if (isPrefix() && literal.length() <= directory.length()
+						&& directory.length() - literal.length() + 1 >= (Integer) this.tokens.get(1))
+					return true;
+				return null;
+			}
+
+			int leading = (Integer) first;
+			if (this.tokens.size() == 1)
+				return leading <= 1 ? true : null;
+			if (this.tokens.size() == 3 && (Integer) this.tokens.get(2) <= 1
+					&& directory.indexOf((String) this.tokens.get(1), leading) >= 0)
+				return true; // e.g. ".*gk.+" for "com/sap/gk/"
+			return null;
+		}
+	}
+
+	/**
+	 * Literal prefixes (or suffixes, stored reversed), each with the minimum
+	 * number of chars of the wildcard after (before) them
+	 */
+	static class Trie {
+		final Map<Character, Trie> children = new HashMap<>(4);
+		int minRemaining = Integer.MAX_VALUE; // (MAX_VALUE = no literal ends here)
+		boolean empty = true;
+
+		void add(String literal, boolean reversed, int minRemaining) {
+			this.empty = false;
+			Trie node = this;
+			for (int i = 0; i < literal.length(); i++) {
+				char c = literal.charAt(reversed ? literal.length() - 1 - i : i);
+				node = node.children.computeIfAbsent(c, k -> new Trie());
+			}
+			node.minRemaining = Math.min(node.minRemaining, minRemaining);
+		}
+
+		boolean matchesPrefix(String name) {
+			if (this.empty)
+				return false;
+			Trie node = this;
+			for (int i = 0; node != null; i++) {
+				if (name.length() - i >= node.minRemaining)
+					return true;
+				if (i == name.length())
+					return false;
+				node = node.children.get(name.charAt(i));
+			}
+			return false;
+		}
+
+		boolean matchesSuffix(String name) {
+			if (this.empty)
+				return false;
+			Trie node = this;
+			for (int i = 0; node != null; i++) {
+				if (name.length() - i >= node.minRemaining)
+					return true;
+				if (i == name.length())
+					return false;
+				node = node.children.get(name.charAt(name.length() - 1 - i));
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+package ninja.abap.gkdecompiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded belt between extraction and decompilation (pipelined bake)
+ * 
+ * Classes are put on the belt as soon as they are extracted and chopped by the
+ * worker threads while the extraction is still going. When the belt is full,
+ * extraction simply waits for the cooks to catch up.
+ *
+ * Inner classes go on the belt together with their outer class, as CFR
+ * decompiles them along with it (and needs them to): classes of an archive wait
+ * by outer class until the archive is walked (see serve), or until more than
+ * the belt's depth of classes are waiting. Inner classes whose outer class
+ * turns up too late (or never) are decompiled on their own.
+ */
+public class Conveyor {
+	private final Logger log = Logger.getLogger(Conveyor.class.getName());
+
+	// Sent once per worker to tell it to go home
+	private static final List<String> END_OF_BELT = Collections.emptyList();
+
+	final Pantry classes;
+	final Cucumber decompiler;
+	final Stove stove;
+	final BlockingQueue<List<String>> belt;
+	final int depth;
+	final int batchSize;
+	final int burners;
+	final List<Future<?>> workers;
+
+	// Classes waiting for the rest of their group, by archive and outer class,
+	// oldest first (guarded by this)
+	final Map<String, Group> groups = new LinkedHashMap<>();
+	int waitingEntries = 0;
+
+	final AtomicInteger queuedEntries = new AtomicInteger(0);
+	final AtomicInteger beltedEntries = new AtomicInteger(0);
+	final AtomicInteger doneEntries = new AtomicInteger(0);
+
+	// Progress of the decompilation (optional)
+	KitchenTimer.Phase progress;
+	final AtomicInteger failedEntries = new AtomicInteger(0);
+
+	public Conveyor(Cucumber decompiler, Stove stove, int depth, int batchSize) {
+		this(decompiler, stove, stove.getBurners(), depth, batchSize);
+	}
+
+	/**
+	 * @param burners burners of the stove the workers occupy (e.g. its share of a
+	 *                stove several bakes run on at the same time)
+	 */
+	public Conveyor(Cucumber decompiler, Stove stove, int burners, int depth, int batchSize) {
+		this.classes = decompiler.classes;
+		this.decompiler = decompiler;
+		this.stove = stove;
+		this.depth = Math.max(1, depth);
+		this.belt = new ArrayBlockingQueue<>(this.depth);
+		this.batchSize = Math.max(1, batchSize);
+		this.burners = Math.max(1, Math.min(burners, stove.getBurners()));
+		this.workers = new ArrayList<>(this.burners);
+	}
+
+	/**
+	 * Occupies its burners of the stove with workers draining the belt (until
+	 * finish)
+	 */
+	public void start() {
+		for (int i = 0; i < this.burners; i++) {
+			this.workers.add(this.stove.submit(this::work));
+		}
+	}
+
+	/**
+	 * Puts a class (already in the class store) on the belt along with the other
+	 * classes of its outer class, blocking while the belt is full
+	 * 
+	 * @param archiveChain archive the class is in (see Potato.handleZipEntry)
+	 */
+	public void put(List<String> archiveChain, String path) throws InterruptedException {
+		this.queuedEntries.incrementAndGet();
+		if (this.progress != null)
+			this.progress.addTotal(1);
+
+		String outerPath = Cucumber.outerClassPath(path) + ".class";
+		List<Group> ready = new ArrayList<>();
+		synchronized (this) {
+			Group group = this.groups.computeIfAbsent(String.join("\n", archiveChain) + "\n" + outerPath,
+					key -> new Group(archiveChain));
+			group.paths.add(path);
+			group.complete |= path.equals(outerPath);
+			this.waitingEntries++;
+
+			// Too many waiting => complete groups go first, then the oldest ones
+			if (this.waitingEntries > this.depth)
+				take(ready, waiting -> waiting.complete);
+			if (this.waitingEntries > this.depth)
+				take(ready, waiting -> this.waitingEntries > this.depth);
+		}
+		belt(ready);
+	}
+
+	/**
+	 * Puts all the classes of an archive that are still waiting on the belt (once
+	 * the archive is walked)
+	 */
+	public void serve(List<String> archiveChain) throws InterruptedException {
+		List<Group> ready = new ArrayList<>();
+		synchronized (this) {
+			take(ready, group -> group.archiveChain.equals(archiveChain));
+		}
+		belt(ready);
+	}
+
+	/**
+	 * Moves waiting groups to ready (in order) while the condition holds for them
+	 */
+	void take(List<Group> ready, Predicate<Group> condition) {
+		for (Iterator<Group> groups = this.groups.values().iterator(); groups.hasNext();) {
+			Group group = groups.next();
+			if (!condition.test(group))
+				continue;
+			groups.remove();
+			this.waitingEntries -= group.paths.size();
+			ready.add(group);
+		}
+	}
+
+	void belt(List<Group> ready) throws InterruptedException {
+		for (Group group : ready) {
+			this.beltedEntries.addAndGet(group.paths.size());
+			this.belt.put(group.paths);
+		}
+	}
+
+	/**
+	 * @return whether classes are on the belt and not decompiled yet
+	 */
+	public boolean isBehind() {
+		return this.beltedEntries.get() > this.doneEntries.get();
+	}
+
+	/**
+	 * Waits until every class on the belt has been decompiled
+	 */
+	public void finish() throws InterruptedException {
+		List<Group> ready = new ArrayList<>();
+		synchronized (this) {
+			take(ready, group -> true);
+		}
+		belt(ready);
+
+		for (int i = 0; i < this.workers.size(); i++) {
+			this.belt.put(END_OF_BELT);
+		}
+		for (Future<?> worker : this.workers) {
+			try {
+				worker.get();
+			} catch (ExecutionException e) {
+				log.log(Level.SEVERE, "Conveyor worker failed", e.getCause());
+			}
+		}
+	}
+
+	private void work() {
+		try {
+			for (;;) {
+				// Take whatever is on the belt (up to a batch, but never part of a group) -
+				// classes come in archive order, so they are mostly of the same package
+				List<String> batch = new ArrayList<>(this.batchSize);
+				boolean endOfBelt = false;
+				List<String> group = this.belt.take();
+				for (;;) {
+					if (group == END_OF_BELT) {
+						endOfBelt = true;
+						break;
+					}
+					batch.addAll(group);
+					if (batch.size() >= this.batchSize || (group = this.belt.poll()) == null)
+						break;
+				}
+
+				if (!batch.isEmpty()) {
+					try {
+						this.failedEntries.addAndGet(this.decompiler.chopBatch(batch));
+					} catch (Throwable e) {
+						// (e.g. a StackOverflowError in CFR) - the worker must keep draining the belt,
+						// or extraction waits for room on it forever
+						log.log(Level.SEVERE, "Batch decompilation failed: " + batch, e);
+						this.failedEntries.addAndGet(batch.size());
+					} finally {
+						// Done with them - free the heap for the next ones
+						batch.forEach(this.classes::remove);
+						this.doneEntries.addAndGet(batch.size());
+						if (this.progress != null)
+							this.progress.done(batch.size());
+					}
+				}
+
+				if (endOfBelt)
+					return; // done
+			}
+		} catch (InterruptedException e) {
+			log.warning("Conveyor worker interrupted: " + Thread.currentThread().getName());
+		}
+	}
+
+	/**
+	 * Classes of an outer class (that came so far)
+	 */
+	static class Group {
+		final List<String> archiveChain;
+		final List<String> paths = new ArrayList<>(1);
+
+		// The outer class is there
+		boolean complete;
+
+		Group(List<String> archiveChain) {
+			this.archiveChain = archiveChain;
+		}
+	}
+
+}
@@ -8,10 +8,19 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,49 +37,403 @@ import org.benf.cfr.reader.bytecode.analysis.parse.utils.Pair;
 public class Cucumber {
 	private final Logger log = Logger.getLogger(Cucumber.class.getName());
 
-	final Map<String, byte[]> classes;
+	// Retry of a class that went over its time budget: no recovery passes with
+	// more aggressive options (what usually takes so long), no finally decoding
+	static final Map<String, String> CHEAP_OPTIONS = new HashMap<>();
+	static {
+		CHEAP_OPTIONS.put("recover", "false");
+		CHEAP_OPTIONS.put("decodefinally", "false");
+	}
+
+	final Pantry classes;
+	final ShoppingList references;
 	final String destinationPath;
 
-	CfrDriver driver;
+	// One driver (and set of sinks) per thread - CFR is not thread-safe
+	final ThreadLocal<CfrDriver> drivers = new ThreadLocal<>();
 
-	public Cucumber(final Map<String, byte[]> classes, String destinationPath) {
+	// Batch being analysed by the current thread (if any)
+	final ThreadLocal<Batch> currentBatch = new ThreadLocal<>();
+	final AtomicLong batchCount = new AtomicLong(0);
+	final LongAdder passes = new LongAdder();
+
+	// Persistent cache of decompiled sources (optional)
+	Freezer freezer;
+
+	// Bake report to time classes and writes in (optional)
+	Receipt receipt;
+
+	// Progress of the decompilation (optional)
+	KitchenTimer.Phase progress;
+
+	// Write-behind output stage (optional - sources are written right away
+	// otherwise)
+	Dumbwaiter waiter;
+
+	// Heap budget, limiting how many threads run CFR at once (optional)
+	Thermostat thermostat;
+
+	// Time budget per class (optional - CFR runs on the calling thread otherwise)
+	EggTimer eggTimer;
+
+	public Cucumber(final Pantry classes, String destinationPath) {
+		this(classes, null, destinationPath);
+	}
+
+	/**
+	 * @param references where to look up classes that are not in the class store
+	 *                   (optional)
+	 */
+	public Cucumber(final Pantry classes, final ShoppingList references, String destinationPath) {
 		this.classes = classes;
+		this.references = references;
 		this.destinationPath = destinationPath;
 	}
 
+	public Cucumber(final Map<String, byte[]> classes, String destinationPath) {
+		this(new HeapPantry(classes), destinationPath);
+	}
+
 	public void chop(String path) throws Exception {
-		if (this.driver == null)
-			this.driver = new CfrDriver.Builder() //
+		if (thawed(path))
+			return;
+
+		// Decompile .class file with CFR
+		Batch single = newBatch(null, Collections.singletonList(path));
+		this.currentBatch.set(single);
+		try {
+			analyse(single);
+		} finally {
+			this.currentBatch.remove();
+		}
+	}
+
+	/**
+	 * Decompiles several classes (ideally from the same package) in a single CFR
+	 * pass, so they share CFR's type loading. Classes the batch did not produce
+	 * any output or error for are retried one by one.
+	 * 
+	 * @return the number of classes that failed
+	 */
+	public int chopBatch(List<String> paths) {
+		paths = thaw(paths);
+		if (paths.isEmpty())
+			return 0;
+		if (paths.size() == 1)
+			return chopAlone(paths.get(0));
+
+		// CFR only shares its state between the classes of a jar, so the batch is
+		// presented as a virtual jar (see VfsFileSystemDataSource.addJar)
+		Batch batch = newBatch("gk-decompiler-batch-" + this.batchCount.incrementAndGet() + ".jar", paths);
+		this.currentBatch.set(batch);
+		try {
+			analyse(batch);
+		} catch (Exception e) {
+			log.log(Level.WARNING, "Batch decompilation failed: " + batch.jarPath, e);
+		} finally {
+			this.currentBatch.remove();
+		}
+
+		// Inner classes are decompiled along with their outer class (if it is there)
+		Set<String> batchPaths = new HashSet<>(paths);
+		List<String> leftovers = new ArrayList<>();
+		for (String path : batch.pending) {
+			String outerPath = outerClassPath(path) + ".class";
+			if (path.equals(outerPath) || !batchPaths.contains(outerPath))
+				leftovers.add(path);
+		}
+		if (!leftovers.isEmpty())
+			log.fine("Retrying " + leftovers.size() + " classes of " + batch.jarPath + " one by one");
+
+		int failures = batch.failed.size();
+		for (String path : leftovers) {
+			failures += chopAlone(path);
+		}
+		return failures;
+	}
+
+	/**
+	 * @return 1 if the class failed (CFR reports most errors through its sink
+	 *         instead of throwing them), 0 otherwise
+	 */
+	int chopAlone(String path) {
+		Batch single = newBatch(null, Collections.singletonList(path));
+		this.currentBatch.set(single);
+		try {
+			analyse(single);
+			return single.failed.size();
+		} catch (TimeoutException e) {
+			return retryTimedOut(path);
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Decompilation failed: " + path, e);
+			return 1;
+		} finally {
+			this.currentBatch.remove();
+		}
+	}
+
+	/**
+	 * Tries a class that went over its time budget once more, in a CFR driver of
+	 * its own with cheaper options (if Kitchen.retryTimedOutClasses)
+	 * 
+	 * @return 1 if the class failed, 0 otherwise
+	 */
+	int retryTimedOut(String path) {
+		log.warning("Decompilation of " + path + " took longer than " + Kitchen.decompileTimeoutMillis
+				+ " ms - abandoned" + (Kitchen.retryTimedOutClasses ? ", retrying with cheaper options" : ""));
+		boolean recovered = false;
+		if (Kitchen.retryTimedOutClasses) {
+			Batch retry = newBatch(null, Collections.singletonList(path));
+			this.currentBatch.set(retry);
+			try {
+				analyse(retry, CHEAP_OPTIONS);
+				recovered = retry.failed.isEmpty();
+			} catch (TimeoutException e) {
+				log.warning("Decompilation of " + path + " timed out again - giving up");
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Decompilation failed: " + path, e);
+			}
+		}
+		this.eggTimer.timedOut(path, recovered);
+		return recovered ? 0 : 1;
+	}
+
+	void analyse(Batch batch) throws Exception {
+		analyse(batch, null);
+	}
+
+	/**
+	 * @param options CFR options of a driver just for this pass (null = the
+	 *                thread's driver with the default ones)
+	 * @throws TimeoutException if the pass went over the time budget
+	 */
+	void analyse(Batch batch, Map<String, String> options) throws Exception {
+		// Heap is short => wait for our turn, without holding on to CFR's type cache
+		if (this.thermostat != null)
+			this.thermostat.takeBurner(this::dropDriver);
+		try {
+			batch.lastOutputTime = System.nanoTime();
+			if (this.eggTimer == null) {
+				pass(batch, options);
+			} else {
+				// (on the thread's cook, see EggTimer - anything the pass still produces once
+				// abandoned is ignored)
+				this.eggTimer.time(() -> {
+					this.currentBatch.set(batch);
+					try {
+						pass(batch, options);
+					} finally {
+						this.currentBatch.remove();
+					}
+				}, () -> batch.lastOutputTime, () -> batch.abandoned = true);
+			}
+		} finally {
+			if (this.thermostat != null)
+				this.thermostat.leaveBurner();
+		}
+		freeze(batch);
+	}
+
+	void pass(Batch batch, Map<String, String> options) {
+		CfrDriver driver = options == null ? driver() : newDriver(options);
+		this.passes.increment();
+		driver.analyse(Collections.singletonList(batch.jarPath != null ? batch.jarPath : batch.paths.get(0)));
+	}
+
+	void dropDriver() {
+		this.drivers.remove();
+		if (this.eggTimer != null)
+			this.eggTimer.retire();
+	}
+
+	Batch newBatch(String jarPath, List<String> paths) {
+		Batch batch = new Batch(jarPath, paths);
+		if (this.freezer != null) {
+			batch.sources = new HashMap<>();
+			batch.reads = new HashMap<>();
+		}
+		return batch;
+	}
+
+	/**
+	 * Writes the sources of the classes found in the cache
+	 * 
+	 * @return the classes that still need to be decompiled
+	 */
+	List<String> thaw(List<String> paths) {
+		if (this.freezer == null)
+			return paths;
+
+		// Inner classes go with their outer class (if it is there)
+		Set<String> batchPaths = new HashSet<>(paths);
+		Set<String> thawed = new HashSet<>();
+		for (String path : paths) {
+			String outerPath = outerClassPath(path) + ".class";
+			if ((path.equals(outerPath) || !batchPaths.contains(outerPath)) && thawed(path))
+				thawed.add(path);
+		}
+		if (thawed.isEmpty())
+			return paths;
+
+		List<String> remaining = new ArrayList<>(paths.size() - thawed.size());
+		for (String path : paths) {
+			if (!thawed.contains(path) && !thawed.contains(outerClassPath(path) + ".class"))
+				remaining.add(path);
+		}
+		return remaining;
+	}
+
+	/**
+	 * @return true if the class was found in the cache (and its sources written)
+	 */
+	boolean thawed(String path) {
+		if (this.freezer == null)
+			return false;
+
+		Freezer.Portion portion;
+		try {
+			byte[] contents = this.classes.get(path);
+			portion = contents == null ? null : this.freezer.get(this.freezer.keyOf(contents));
+		} catch (IOException e) {
+			portion = null;
+		}
+		if (portion == null || !portion.innerClassHashes.entrySet().stream()
+				.allMatch(inner -> inner.getValue().equals(hashOf(inner.getKey())))) {
+			this.freezer.misses.increment();
+			return false;
+		}
+
+		for (String[] source : portion.sources) {
+			saveJavaFile(source[0], source[1], source[2]);
+		}
+		this.freezer.hits.increment();
+		return true;
+	}
+
+	/**
+	 * Stores the sources of the classes of a batch in the cache, along with the
+	 * inner classes CFR read for them
+	 */
+	void freeze(Batch batch) {
+		if (this.freezer == null)
+			return;
+
+		for (Map.Entry<String, List<String[]>> sources : batch.sources.entrySet()) {
+			String path = sources.getKey();
+			byte[] contents = batch.reads.get(path);
+			if (contents == null || batch.failed.contains(path))
+				continue;
+
+			// Inner classes may be read without the path prefix (e.g. WEB-INF/classes/)
+			String outerPath = outerClassPath(path);
+			Map<String, String> innerClassHashes = new TreeMap<>();
+			for (Map.Entry<String, byte[]> read : batch.reads.entrySet()) {
+				String readOuterPath = outerClassPath(read.getKey());
+				if (!read.getKey().equals(path)
+						&& (outerPath.equals(readOuterPath) || outerPath.endsWith("/" + readOuterPath)))
+					innerClassHashes.put(read.getKey(), Freezer.sha256(read.getValue()));
+			}
+			this.freezer.put(this.freezer.keyOf(contents), new Freezer.Portion(innerClassHashes, sources.getValue()));
+		}
+	}
+
+	String hashOf(String path) {
+		try {
+			return Freezer.sha256(readClassContents(path));
+		} catch (IOException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * "a/b/Outer$Inner$1.class" => "a/b/Outer"
+	 */
+	static String outerClassPath(String path) {
+		int nameStart = path.lastIndexOf('/') + 1;
+		int dollar = path.indexOf('$', nameStart);
+		int end = dollar > nameStart ? dollar : path.length() - ".class".length();
+		return path.substring(0, Math.max(nameStart, end));
+	}
+
+	CfrDriver driver() {
+		CfrDriver driver = this.drivers.get();
+		if (driver == null) {
+			driver = new CfrDriver.Builder() //
 					.withClassFileSource(new VfsFileSystemDataSource()) //
 					.withOutputSink(new CustomOutputSinkFactory()) //
 					.build();
+			this.drivers.set(driver);
+		}
+		return driver;
+	}
 
-		// Decompile .class file with CFR
-		driver.analyse(Collections.singletonList(path));
+	CfrDriver newDriver(Map<String, String> options) {
+		return new CfrDriver.Builder() //
+				.withClassFileSource(new VfsFileSystemDataSource()) //
+				.withOutputSink(new CustomOutputSinkFactory()) //
+				.withOptions(options) //
+				.build();
 	}
 
 	byte[] readClassContents(String path) throws IOException {
 		byte[] contents = this.classes.get(path);
+		if (contents == null && this.references != null)
+			contents = this.references.fetch(path);
 		if (contents == null)
 			throw new IOException("Class not found: " + path);
 
+		Batch batch = this.currentBatch.get();
+		if (batch != null && batch.reads != null)
+			batch.reads.put(path, contents);
+
 		return contents;
 	}
 
+	/**
+	 * Reports and writes a source CFR came up with (here or in another JVM, see
+	 * Brigade)
+	 * 
+	 * @param latencyNanos time CFR took for it (-1 = unknown)
+	 */
+	void served(String packageName, String className, long latencyNanos, String javaSource) {
+		if (latencyNanos >= 0 && this.receipt != null)
+			this.receipt.decompiled((packageName.isEmpty() ? "" : packageName + ".") + className, latencyNanos);
+		if (this.progress != null)
+			this.progress.item(className);
+		saveJavaFile(packageName, className, javaSource);
+	}
+
 	void saveJavaFile(String packageName, String className, String javaSource) {
 		String relativePath = packageName.replace('.', '/');
 		Path targetFile = Paths.get(Cucumber.this.destinationPath, relativePath, className + ".java");
+		byte[] javaBytes = javaSource.getBytes(StandardCharsets.UTF_8);
+		if (this.progress != null)
+			this.progress.bytes(javaBytes.length);
+
+		// Write-behind => hand it over to the output stage and move on
+		if (this.waiter != null) {
+			try {
+				this.waiter.send(targetFile, javaBytes);
+			} catch (IOException e) {
+				log.log(Level.SEVERE, "Write failed: " + targetFile, e);
+			}
+			return;
+		}
+
+		long startTime = System.nanoTime();
+		long startCpuTime = this.receipt != null ? this.receipt.writeStarted() : 0;
 		try {
 			Files.createDirectories(targetFile.getParent());
 
 			// MappedByteBuffer is the fastest method of sequential writes to files < 8MB
 			// https://www.happycoders.eu/java/filechannel-bytebuffer-memory-mapped-file-locks/
-			byte[] javaBytes = javaSource.getBytes(StandardCharsets.UTF_8);
 			try (FileChannel channel = FileChannel.open(targetFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
-					StandardOpenOption.READ)) {
+					StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
 				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, javaBytes.length);
 				buffer.put(javaBytes);
 			}
+			if (this.receipt != null)
+				this.receipt.written(javaBytes.length, startTime, startCpuTime);
 
 			if (log.isLoggable(Level.FINE))
 				log.fine("Saved " + targetFile);
@@ -86,7 +449,11 @@ public class Cucumber {
 
 		@Override
 		public Collection<String> addJar(String jarPath) {
-			throw new UnsupportedOperationException();
+			Batch batch = Cucumber.this.currentBatch.get();
+			if (batch == null || !jarPath.equals(batch.jarPath))
+				throw new UnsupportedOperationException();
+
+			return batch.paths;
 		}
 
 		@Override
@@ -138,7 +505,16 @@ public class Cucumber {
 	class JavaSourceOutputSink implements OutputSinkFactory.Sink<Decompiled> {
 		@Override
 		public void write(Decompiled sinkable) {
-			Cucumber.this.saveJavaFile(sinkable.getPackageName(), sinkable.getClassName(), sinkable.getJava());
+			Batch batch = Cucumber.this.currentBatch.get();
+			if (batch != null && batch.abandoned)
+				return; // (its classes are decompiled again)
+			Cucumber.this.served(sinkable.getPackageName(), sinkable.getClassName(),
+					batch != null ? System.nanoTime() - batch.lastOutputTime : -1, sinkable.getJava());
+
+			if (batch != null) {
+				batch.done(sinkable.getPackageName(), sinkable.getClassName(), sinkable.getJava());
+				batch.lastOutputTime = System.nanoTime();
+			}
 		}
 	}
 
@@ -147,6 +523,55 @@ public class Cucumber {
 		public void write(ExceptionMessage sinkable) {
 			log.log(Level.SEVERE, String.format("CFR decompiler: %s: %s", sinkable.getPath(), sinkable.getMessage()),
 					sinkable.getThrownException());
+
+			Batch batch = Cucumber.this.currentBatch.get();
+			if (batch != null && batch.abandoned)
+				return;
+			if (batch != null && batch.pending.remove(sinkable.getPath()))
+				batch.failed.add(sinkable.getPath());
+		}
+	}
+
+	/**
+	 * Classes decompiled together and what became of each of them
+	 */
+	static class Batch {
+		final String jarPath;
+		final List<String> paths;
+		final Set<String> pending;
+		final Set<String> failed = ConcurrentHashMap.newKeySet(); // (see abandoned)
+
+		// Sources written and classes read per class (only to fill the cache)
+		Map<String, List<String[]>> sources;
+		Map<String, byte[]> reads;
+
+		// When CFR last handed over a source (per-class latency, see Receipt, and time
+		// budget, see EggTimer)
+		volatile long lastOutputTime;
+
+		// Went over the time budget - whatever CFR still comes up with is ignored
+		volatile boolean abandoned;
+
+		Batch(String jarPath, List<String> paths) {
+			this.jarPath = jarPath;
+			this.paths = paths;
+			this.pending = ConcurrentHashMap.newKeySet(paths.size());
+			this.pending.addAll(paths);
+		}
+
+		void done(String packageName, String className, String java) {
+			// Class paths may have a prefix (e.g. WEB-INF/classes/)
+			String classPath = (packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/") + className
+					+ ".class";
+			for (String path : this.paths) {
+				if (!path.equals(classPath) && !path.endsWith("/" + classPath))
+					continue;
+
+				this.pending.remove(path);
+				if (this.sources != null)
+					this.sources.computeIfAbsent(path, k -> new ArrayList<>(1))
+							.add(new String[] { packageName, className, java });
+			}
 		}
 	}
 
@@ -0,0 +1,245 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Random-access reader of the root archive for parallel extraction
+ *
+ * The archive is memory-mapped and its central directory parsed once; after
+ * that, any number of threads may open entries concurrently, each one reading
+ * through its own view of the mapping (no locks, unlike ZipFile, which
+ * serializes reads of the underlying file).
+ *
+ * Only plain archives are supported: ZIP64 archives, archives over 2 GB and
+ * encrypted entries are left to ZipFile (see open).
+ */
+public class CuttingBoard implements Closeable {
+	private static final Logger log = Logger.getLogger(CuttingBoard.class.getName());
+
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_SIGNATURE = 0x06054b50;
+	static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+	final FileChannel channel;
+	final MappedByteBuffer mapping;
+	final List<ZipEntry> entries;
+
+	private CuttingBoard(FileChannel channel, MappedByteBuffer mapping, List<ZipEntry> entries) {
+		this.channel = channel;
+		this.mapping = mapping;
+		this.entries = entries;
+	}
+
+	/**
+	 * @return a reader of the archive, or null if it is not supported (and should
+	 *         be read with ZipFile)
+	 */
+	public static CuttingBoard open(String archivePath) throws IOException {
+		FileChannel channel = FileChannel.open(Paths.get(archivePath), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				log.info("Archive is too big to be mapped at once: " + archivePath);
+				channel.close();
+				return null;
+			}
+
+			MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			List<ZipEntry> entries = readCentralDirectory(mapping);
+			if (entries == null) {
+				log.info("Archive is not a plain (non-ZIP64) archive: " + archivePath);
+				channel.close();
+				return null;
+			}
+			return new CuttingBoard(channel, mapping, entries);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return entries in central directory order (the same as ZipFile.entries)
+	 */
+	public List<ZipEntry> entries() {
+		return this.entries;
+	}
+
+	/**
+	 * Opens an entry for reading (thread-safe)
+	 */
+	public InputStream getInputStream(ZipEntry entry) throws IOException {
+		Slice slice = (Slice) entry;
+		if ((slice.flags & 1) != 0)
+			throw new ZipException("Encrypted entry: " + entry.getName());
+
+		ByteBuffer view = this.mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int headerOffset = slice.localHeaderOffset;
+		if (view.getInt(headerOffset) != LOCAL_HEADER_SIGNATURE)
+			throw new ZipException("Invalid local header: " + entry.getName());
+
+		// Local name/extra lengths may differ from the central directory ones
+		int dataOffset = headerOffset + 30 + (view.getShort(headerOffset + 26) & 0xFFFF)
+				+ (view.getShort(headerOffset + 28) & 0xFFFF);
+		((Buffer) view).position(dataOffset).limit(dataOffset + (int) slice.getCompressedSize());
+
+		switch (slice.getMethod()) {
+		case ZipEntry.STORED:
+			return new BufferInputStream(view, false);
+		case ZipEntry.DEFLATED:
+			int bufferSize = (int) Math.max(512, Math.min(64 * 1024, slice.getCompressedSize()));
+			return new InflaterInputStream(new BufferInputStream(view, true), new Inflater(true), bufferSize) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					this.inf.end();
+				}
+			};
+		default:
+			throw new ZipException("Unsupported compression method " + slice.getMethod() + ": " + entry.getName());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	/**
+	 * @return null if the archive needs ZIP64 support
+	 */
+	static List<ZipEntry> readCentralDirectory(ByteBuffer mapping) throws ZipException {
+		ByteBuffer buffer = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+		// End of central directory record: 22 bytes + comment (up to 64 KB)
+		int end = -1;
+		for (int position = buffer.limit() - 22; position >= Math.max(0, buffer.limit() - 22 - 0xFFFF); position--) {
+			if (buffer.getInt(position) == END_SIGNATURE) {
+				end = position;
+				break;
+			}
+		}
+		if (end < 0)
+			throw new ZipException("End of central directory not found");
+		if (end >= 20 && buffer.getInt(end - 20) == ZIP64_LOCATOR_SIGNATURE)
+			return null;
+
+		int totalEntries = buffer.getShort(end + 10) & 0xFFFF;
+		long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+		if (totalEntries == 0xFFFF || directoryOffset == 0xFFFFFFFFL)
+			return null;
+
+		List<ZipEntry> entries = new ArrayList<>(totalEntries);
+		int position = (int) directoryOffset;
+		for (int i = 0; i < totalEntries; i++) {
+			if (buffer.getInt(position) != CENTRAL_HEADER_SIGNATURE)
+				throw new ZipException("Invalid central directory header #" + i);
+
+			int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+			int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+			int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+			long compressedSize = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+			long size = buffer.getInt(position + 24) & 0xFFFFFFFFL;
+			long localHeaderOffset = buffer.getInt(position + 42) & 0xFFFFFFFFL;
+			if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL)
+				return null;
+
+			byte[] name = new byte[nameLength];
+			ByteBuffer nameView = buffer.duplicate();
+			((Buffer) nameView).position(position + 46);
+			nameView.get(name);
+
+			Slice slice = new Slice(new String(name, StandardCharsets.UTF_8), buffer.getShort(position + 8) & 0xFFFF,
+					(int) localHeaderOffset);
+			slice.setMethod(buffer.getShort(position + 10) & 0xFFFF);
+			slice.setCrc(buffer.getInt(position + 16) & 0xFFFFFFFFL);
+			slice.setCompressedSize(compressedSize);
+			slice.setSize(size);
+			entries.add(slice);
+
+			position += 46 + nameLength + extraLength + commentLength;
+		}
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Entry of the central directory, along with where to find its data
+	 */
+	static class Slice extends ZipEntry {
+		final int flags;
+		final int localHeaderOffset;
+
+		Slice(String name, int flags, int localHeaderOffset) {
+			super(name);
+			this.flags = flags;
+			this.localHeaderOffset = localHeaderOffset;
+		}
+	}
+
+	/**
+	 * Stream over a view of the mapping
+	 */
+	static class BufferInputStream extends InputStream {
+		final ByteBuffer view;
+
+		// Inflater in "nowrap" mode may need an extra byte after the compressed data
+		boolean dummyByte;
+
+		BufferInputStream(ByteBuffer view, boolean dummyByte) {
+			this.view = view;
+			this.dummyByte = dummyByte;
+		}
+
+		@Override
+		public int read() {
+			if (this.view.hasRemaining())
+				return this.view.get() & 0xFF;
+			if (this.dummyByte) {
+				this.dummyByte = false;
+				return 0;
+			}
+			return -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0)
+				return 0;
+			if (!this.view.hasRemaining()) {
+				int b = read();
+				if (b == -1)
+					return -1;
+				bytes[offset] = (byte) b;
+				return 1;
+			}
+
+			int count = Math.min(length, this.view.remaining());
+			this.view.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return this.view.remaining();
+		}
+	}
+
+}
@@ -0,0 +1,444 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Write-behind output stage: takes finished files (extracted resources,
+ * decompiled sources) from the workers and writes them on a few I/O threads of
+ * its own, so workers only wait for the filesystem when it falls behind by more
+ * than the queue depth.
+ *
+ * Files are spread over the I/O threads by path, so writes of the same path
+ * (archives often contain the same files) happen in the order they were sent -
+ * files too big to be queued included, as their sender waits for its turn on
+ * that path before writing them. Directories known to exist are remembered
+ * instead of being created again for every file.
+ *
+ * The queue is bounded by both number of files and bytes held.
+ *
+ * Given runners (see Runners), every file is written on a thread of its own
+ * instead, after the ones sent before for the same path.
+ */
+public class Dumbwaiter implements Closeable {
+	private final Logger log = Logger.getLogger(Dumbwaiter.class.getName());
+
+	// Biggest file held in memory (bigger ones are written by the sender itself)
+	static final int MAX_ORDER_BYTES = 8 * 1024 * 1024;
+
+	static final Order LAST_ORDER = new Order(null, null, 0, false);
+
+	final Lane[] lanes;
+
+	// Room left in the queue, in KB
+	final int queueKilobytes;
+	final Semaphore room;
+
+	// Thread per file instead of the lanes (optional), files being written or
+	// waiting for a thread (at most queueDepth), and the last file sent per path
+	// (until it is written)
+	final ExecutorService runners;
+	final int queueDepth;
+	final Semaphore seats;
+	final Map<Path, CompletableFuture<Void>> lastOrders = new ConcurrentHashMap<>();
+
+	final Set<Path> knownDirectories = ConcurrentHashMap.newKeySet();
+	final Tupperware buffers;
+
+	// Writes of the same path must not interleave (see writeNow)
+	final Object[] fileLocks = new Object[64];
+	{
+		Arrays.setAll(this.fileLocks, i -> new Object());
+	}
+
+	// Bake report to time writes in (optional)
+	Receipt receipt;
+
+	final AtomicInteger queuedOrders = new AtomicInteger(0);
+	final LongAdder servedOrders = new LongAdder();
+	final LongAdder latencyNanos = new LongAdder();
+	final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+	final LongAccumulator maxQueuedOrders = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param threads    I/O threads
+	 * @param queueDepth files waiting to be written (at most), over all threads
+	 * @param queueBytes bytes of them held in memory (at most)
+	 */
+	public Dumbwaiter(int threads, int queueDepth, long queueBytes) {
+		this(threads, queueDepth, queueBytes, null);
+	}
+
+	/**
+	 * @param runners where to write every file on a thread of its own (instead of
+	 *                the I/O threads, optional - see Runners)
+	 */
+	public Dumbwaiter(int threads, int queueDepth, long queueBytes, ExecutorService runners) {
+		this.buffers = new Tupperware(64 * 1024, queueDepth + threads);
+		this.queueKilobytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, queueBytes / 1024));
+		this.room = new Semaphore(this.queueKilobytes);
+		this.runners = runners;
+		this.queueDepth = Math.max(1, queueDepth);
+		this.seats = runners != null ? new Semaphore(this.queueDepth) : null;
+		this.lanes = new Lane[runners != null ? 0 : threads];
+		for (int i = 0; i < this.lanes.length; i++) {
+			this.lanes[i] = new Lane(Math.max(1, queueDepth / threads), "dumbwaiter-" + (i + 1));
+		}
+	}
+
+	/**
+	 * Queues a file to be written (waits if the queue is full)
+	 *
+	 * @param contents handed over - must not be changed afterwards
+	 */
+	public void send(Path file, byte[] contents) throws IOException {
+		queue(new Order(file, contents, contents.length, false));
+	}
+
+	/**
+	 * Reads a file's contents and queues it to be written (or writes it right
+	 * away if it is too big to be held in memory)
+	 *
+	 * @return bytes read
+	 */
+	public long send(Path file, InputStream in) throws IOException {
+		byte[] buffer = this.buffers.borrow();
+		int length = 0;
+		int read;
+		try {
+			while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+				length += read;
+				if (length == buffer.length) {
+					if (buffer.length >= MAX_ORDER_BYTES)
+						return writeNow(file, buffer, length, in);
+					buffer = this.buffers.grow(buffer);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			this.buffers.giveBack(buffer);
+			throw e;
+		}
+
+		queue(new Order(file, buffer, length, true));
+		return length;
+	}
+
+	void queue(Order order) throws IOException {
+		order.sentTime = System.nanoTime();
+		// (contents held in memory only - an order bigger than the whole queue waits
+		// for it to be empty)
+		if (order.contents != null)
+			order.kilobytes = Math.min(this.queueKilobytes, order.length / 1024 + 1);
+		try {
+			this.room.acquire(order.kilobytes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing " + order.file);
+		}
+
+		if (this.runners != null) {
+			dispatch(order);
+			return;
+		}
+
+		this.maxQueuedOrders.accumulate(this.queuedOrders.incrementAndGet());
+		try {
+			laneOf(order.file).orders.put(order);
+		} catch (InterruptedException e) {
+			this.queuedOrders.decrementAndGet();
+			this.room.release(order.kilobytes);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing " + order.file);
+		}
+	}
+
+	/**
+	 * Writes a file on a runner of its own, once the files sent before for the same
+	 * path are written (waits if queueDepth files are not written yet)
+	 */
+	void dispatch(Order order) throws IOException {
+		try {
+			this.seats.acquire();
+		} catch (InterruptedException e) {
+			this.room.release(order.kilobytes);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing " + order.file);
+		}
+		this.maxQueuedOrders.accumulate(this.queuedOrders.incrementAndGet());
+
+		Runnable run = () -> {
+			try {
+				this.queuedOrders.decrementAndGet();
+				serve(order);
+			} finally {
+				this.seats.release();
+			}
+		};
+		CompletableFuture<Void> next = this.lastOrders.compute(order.file,
+				(file, last) -> last == null ? CompletableFuture.runAsync(run, this.runners)
+						: last.handle((result, e) -> null).thenRunAsync(run, this.runners));
+		next.whenComplete((result, e) -> this.lastOrders.remove(order.file, next));
+	}
+
+	Lane laneOf(Path file) {
+		return this.lanes[(file.hashCode() & 0x7fffffff) % this.lanes.length];
+	}
+
+	Object lockOf(Path file) {
+		return this.fileLocks[(file.hashCode() & 0x7fffffff) % this.fileLocks.length];
+	}
+
+	/**
+	 * Writes a file too big to be queued: what was read so far, then the rest of
+	 * the stream - once the files sent before for the same path are written,
+	 * holding back those sent after it meanwhile
+	 */
+	long writeNow(Path file, byte[] head, int headLength, InputStream rest) throws IOException {
+		Order turn = new Order(file, null, 0, false);
+		turn.turn = new CompletableFuture<>();
+		turn.written = new CompletableFuture<>();
+		try {
+			queue(turn);
+			turn.turn.get();
+			return write(file, head, headLength, rest);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to write " + file);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause()); // (never, see serve)
+		} finally {
+			turn.written.complete(null);
+		}
+	}
+
+	long write(Path file, byte[] head, int headLength, InputStream rest) throws IOException {
+		long startTime = System.nanoTime();
+		long startCpuTime = this.receipt != null ? this.receipt.writeStarted() : 0;
+		long written = headLength;
+		try {
+			createDirectories(file.getParent());
+			synchronized (lockOf(file)) {
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+					write(channel, head, headLength);
+					int read;
+					while ((read = rest.read(head)) != -1) {
+						write(channel, head, read);
+						written += read;
+					}
+				}
+			}
+		} finally {
+			this.buffers.giveBack(head);
+		}
+		if (this.receipt != null)
+			this.receipt.written(written, startTime, startCpuTime);
+		return written;
+	}
+
+	void serve(Order order) {
+		// Written by its sender (see writeNow)
+		if (order.turn != null) {
+			order.turn.complete(null);
+			order.written.join();
+			return;
+		}
+
+		long startTime = System.nanoTime();
+		long startCpuTime = this.receipt != null ? this.receipt.writeStarted() : 0;
+		try {
+			deliver(order);
+			if (this.receipt != null)
+				this.receipt.written(order.length, startTime, startCpuTime);
+
+			if (log.isLoggable(Level.FINE))
+				log.fine("Saved " + order.file);
+		} catch (Exception e) {
+			// File is locked or something...
+			log.log(Level.SEVERE, "Write failed: " + order.file, e);
+		} finally {
+			this.room.release(order.kilobytes);
+			if (order.pooled)
+				this.buffers.giveBack(order.contents);
+			if (order.spool != null)
+				try {
+					Files.deleteIfExists(order.spool);
+				} catch (IOException e) {
+					log.log(Level.WARNING, "Could not delete " + order.spool, e);
+				}
+		}
+
+		long latency = System.nanoTime() - order.sentTime;
+		this.latencyNanos.add(latency);
+		this.maxLatencyNanos.accumulate(latency);
+		this.servedOrders.increment();
+	}
+
+	/**
+	 * Writes a file (on an I/O thread)
+	 */
+	void deliver(Order order) throws IOException {
+		createDirectories(order.file.getParent());
+		synchronized (lockOf(order.file)) {
+			try (FileChannel channel = FileChannel.open(order.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				write(channel, order.contents, order.length);
+			}
+		}
+	}
+
+	static void write(FileChannel channel, byte[] contents, int length) throws IOException {
+		ByteBuffer chunk = ByteBuffer.wrap(contents, 0, length);
+		while (chunk.hasRemaining())
+			channel.write(chunk);
+	}
+
+	void createDirectories(Path directory) throws IOException {
+		if (directory == null || this.knownDirectories.contains(directory))
+			return;
+
+		Files.createDirectories(directory);
+		for (Path known = directory; known != null && this.knownDirectories.add(known); known = known.getParent())
+			;
+	}
+
+	/**
+	 * @return files waiting to be written
+	 */
+	public int getQueueDepth() {
+		return this.queuedOrders.get();
+	}
+
+	/**
+	 * @return average time from a file being sent to it being written
+	 */
+	public double getAverageLatencyMillis() {
+		long served = this.servedOrders.sum();
+		return served == 0 ? 0 : this.latencyNanos.sum() / 1e6 / served;
+	}
+
+	public double getMaxLatencyMillis() {
+		return this.maxLatencyNanos.get() / 1e6;
+	}
+
+	/**
+	 * Writes whatever is left in the queue and stops the I/O threads
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.runners != null) {
+			try {
+				// (all seats free => everything written)
+				this.seats.acquire(this.queueDepth);
+				this.runners.shutdown();
+				this.runners.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while closing the output stage");
+			}
+		}
+		for (Lane lane : this.lanes) {
+			try {
+				lane.orders.put(LAST_ORDER);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while closing the output stage");
+			}
+		}
+		for (Lane lane : this.lanes) {
+			try {
+				lane.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while closing the output stage");
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Output: %d files written by %s, %.1f ms average latency (max. %.1f ms), "
+				+ "max. %d files queued, %d directories", this.servedOrders.sum(),
+				this.runners != null ? "a thread per file" : this.lanes.length + " threads",
+				getAverageLatencyMillis(), getMaxLatencyMillis(), this.maxQueuedOrders.get(),
+				this.knownDirectories.size());
+	}
+
+	/**
+	 * Queue of an I/O thread
+	 */
+	class Lane {
+		final BlockingQueue<Order> orders;
+		final Thread thread;
+
+		Lane(int capacity, String name) {
+			this.orders = new ArrayBlockingQueue<>(capacity);
+			this.thread = new Thread(this::work, name);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		void work() {
+			try {
+				for (;;) {
+					Order order = this.orders.take();
+					if (order == LAST_ORDER)
+						return;
+					Dumbwaiter.this.queuedOrders.decrementAndGet();
+					serve(order);
+				}
+			} catch (InterruptedException e) {
+				log.warning("Output thread interrupted: " + Thread.currentThread().getName());
+			}
+		}
+	}
+
+	/**
+	 * A file to be written
+	 */
+	static class Order {
+		final Path file;
+		final byte[] contents;
+		final int length;
+		final boolean pooled; // contents go back to the buffer pool once written
+		Path spool; // where the contents are, if too big to be held in memory (see Lunchbox)
+		long sentTime;
+		int kilobytes; // of the queue's room taken
+
+		// Turn of a file written by its sender (see writeNow): completed when the files
+		// sent before are written, and when it is
+		CompletableFuture<Void> turn;
+		CompletableFuture<Void> written;
+
+		Order(Path file, byte[] contents, int length, boolean pooled) {
+			this.file = file;
+			this.contents = contents;
+			this.length = length;
+			this.pooled = pooled;
+		}
+	}
+
+}
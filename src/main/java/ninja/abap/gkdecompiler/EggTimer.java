@@ -0,0 +1,158 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Watchdog giving every class a time budget in CFR
+ *
+ * CFR passes of a decompiler thread are run on a helper thread of its own (a
+ * cook), while the decompiler thread waits for it. A pass that goes without
+ * finishing a class for longer than the budget is abandoned: the cook is left
+ * to finish it on its own (there is no safe way to stop it) and is replaced by
+ * a new one, which comes with a new CFR driver. Whatever the abandoned pass
+ * still produces is ignored (see Cucumber.Batch.abandoned).
+ */
+public class EggTimer implements Closeable {
+	private final Logger log = Logger.getLogger(EggTimer.class.getName());
+
+	private static final AtomicInteger cookCount = new AtomicInteger(0);
+
+	final long budgetNanos;
+
+	// Cook of each decompiler thread, and all of them (to send them home)
+	final ThreadLocal<ExecutorService> cooks = new ThreadLocal<>();
+	final Set<ExecutorService> allCooks = ConcurrentHashMap.newKeySet();
+
+	final LongAdder timeouts = new LongAdder();
+
+	// Classes that went over budget on their own => whether they could be
+	// decompiled after all (with cheaper options)
+	final Map<String, Boolean> timedOutClasses = new ConcurrentSkipListMap<>();
+
+	public EggTimer(long budgetMillis) {
+		this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+	}
+
+	/**
+	 * Runs a CFR pass on the current thread's cook
+	 *
+	 * @param lastProgress System.nanoTime of the pass's last finished class (or its
+	 *                     start)
+	 * @throws TimeoutException if the pass went over budget (and was abandoned)
+	 */
+	public void time(Runnable pass, LongSupplier lastProgress) throws Exception {
+		time(pass, lastProgress, () -> {
+		});
+	}
+
+	/**
+	 * @param abandon run when the pass goes over budget, before its cook is let go
+	 *                (and interrupted)
+	 */
+	public void time(Runnable pass, LongSupplier lastProgress, Runnable abandon) throws Exception {
+		Future<?> future = cook().submit(pass);
+		try {
+			for (;;) {
+				long remaining = this.budgetNanos - (System.nanoTime() - lastProgress.getAsLong());
+				try {
+					future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+					return;
+				} catch (TimeoutException e) {
+					// Only over budget if no class was finished meanwhile
+					if (System.nanoTime() - lastProgress.getAsLong() >= this.budgetNanos) {
+						this.timeouts.increment();
+						abandon.run();
+						retire();
+						throw e;
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		}
+	}
+
+	ExecutorService cook() {
+		ExecutorService cook = this.cooks.get();
+		if (cook == null) {
+			String name = Thread.currentThread().getName() + "-cook-" + cookCount.incrementAndGet();
+			cook = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true); // (abandoned ones must never keep the JVM alive)
+				return thread;
+			});
+			this.cooks.set(cook);
+			this.allCooks.add(cook);
+		}
+		return cook;
+	}
+
+	/**
+	 * Lets the current thread's cook go (along with its CFR driver) once it is
+	 * done with what it is doing; the next pass gets a new one
+	 */
+	public void retire() {
+		ExecutorService cook = this.cooks.get();
+		if (cook == null)
+			return;
+		this.cooks.remove();
+		this.allCooks.remove(cook);
+		cook.shutdownNow(); // (CFR ignores interrupts, but just in case)
+	}
+
+	void timedOut(String path, boolean recovered) {
+		this.timedOutClasses.put(path, recovered);
+	}
+
+	/**
+	 * Writes the list of classes that went over budget (CSV), if there were any
+	 */
+	void writeReport(Path file) throws IOException {
+		if (this.timedOutClasses.isEmpty())
+			return;
+
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write("Class,Decompiled?\r\n");
+			for (Map.Entry<String, Boolean> timedOut : this.timedOutClasses.entrySet()) {
+				writer.write('"' + timedOut.getKey().replace("\"", "\"\"") + "\"," + (timedOut.getValue() ? "X" : "")
+						+ "\r\n");
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		for (ExecutorService cook : this.allCooks) {
+			cook.shutdownNow();
+		}
+		this.allCooks.clear();
+		if (this.timeouts.sum() > 0)
+			log.warning(this.timeouts.sum() + " CFR passes went over the time budget of "
+					+ TimeUnit.NANOSECONDS.toMillis(this.budgetNanos) + " ms per class");
+	}
+
+}
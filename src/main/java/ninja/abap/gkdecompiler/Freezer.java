@@ -0,0 +1,279 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.benf.cfr.reader.util.CfrVersionInfo;
+
+/**
+ * Persistent cache of decompiled sources, shared across bakes and archives
+ *
+ * Entries are gzipped files named after the SHA-256 of the class bytes, the CFR
+ * version and options (content-addressed), so identical classes found in
+ * different archives or releases are decompiled only once. Since CFR inlines
+ * inner classes into their outer class, an entry also records the hashes of
+ * the inner classes read while decompiling it, and is only a hit if they did
+ * not change either.
+ *
+ * Several bakes may share a cache directory: entries are written to a temp.
+ * file and moved into place, so readers never see a partial entry. Reads touch
+ * the entry's modification time, which is what eviction (oldest first) goes by
+ * once the cache grows beyond its size cap.
+ */
+public class Freezer {
+	private final Logger log = Logger.getLogger(Freezer.class.getName());
+
+	static final int FORMAT_VERSION = 1;
+
+	final Path directory;
+	final long maxBytes;
+	final String salt;
+
+	// Approximate size of the cache (-1 = not measured yet)
+	final AtomicLong sizeBytes = new AtomicLong(-1);
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+	final LongAdder stores = new LongAdder();
+
+	/**
+	 * @param options CFR options the sources are decompiled with (part of the key)
+	 */
+	public Freezer(String directory, long maxBytes, Map<String, String> options) throws IOException {
+		this.directory = Paths.get(directory);
+		this.maxBytes = maxBytes;
+		this.salt = "CFR " + CfrVersionInfo.VERSION + " " + FORMAT_VERSION + " " + options;
+		Files.createDirectories(this.directory);
+	}
+
+	/**
+	 * @return the cache key for a class
+	 */
+	public String keyOf(byte[] classBytes) {
+		return sha256(this.salt.getBytes(StandardCharsets.UTF_8), classBytes);
+	}
+
+	/**
+	 * @return the cached entry, or null if there is none
+	 */
+	public Portion get(String key) {
+		Path file = fileOf(key);
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 16 * 1024)))) {
+			Portion portion = Portion.readFrom(in);
+			touch(file);
+			return portion;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			// Corrupt (or evicted while being read) - decompile it again
+			log.log(Level.FINE, "Unreadable cache entry: " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores an entry (replacing any previous one with the same key)
+	 */
+	public void put(String key, Portion portion) {
+		Path file = fileOf(key);
+		Path tempFile = null;
+		try {
+			Files.createDirectories(file.getParent());
+			tempFile = Files.createTempFile(file.getParent(), key.substring(0, 8), ".tmp");
+			try (OutputStream fileOut = Files.newOutputStream(tempFile);
+					DataOutputStream out = new DataOutputStream(
+							new BufferedOutputStream(new GZIPOutputStream(fileOut, 16 * 1024)))) {
+				portion.writeTo(out);
+			}
+			long entrySize = Files.size(tempFile);
+			try {
+				Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			} catch (FileAlreadyExistsException e) {
+				// Another bake stored the same entry meanwhile
+				Files.deleteIfExists(tempFile);
+				return;
+			}
+			this.stores.increment();
+
+			if (this.sizeBytes.get() < 0)
+				this.sizeBytes.compareAndSet(-1, measure());
+			if (this.sizeBytes.addAndGet(entrySize) > this.maxBytes)
+				evict();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not store cache entry " + file, e);
+			if (tempFile != null)
+				try {
+					Files.deleteIfExists(tempFile);
+				} catch (IOException ignored) {
+				}
+		}
+	}
+
+	/**
+	 * Deletes the least recently used entries until the cache is down to 90% of
+	 * its size cap
+	 */
+	synchronized void evict() throws IOException {
+		if (this.sizeBytes.get() <= this.maxBytes)
+			return;
+
+		List<Map.Entry<Path, BasicFileAttributes>> entries = new ArrayList<>();
+		long total = 0;
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			for (Path file : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".gz"))::iterator) {
+				try {
+					BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+					entries.add(new AbstractMap.SimpleEntry<>(file, attrs));
+					total += attrs.size();
+				} catch (NoSuchFileException e) {
+					// Evicted by another bake
+				}
+			}
+		}
+		entries.sort(Comparator.comparing(entry -> entry.getValue().lastModifiedTime()));
+
+		long target = this.maxBytes / 10 * 9;
+		int evicted = 0;
+		for (Map.Entry<Path, BasicFileAttributes> entry : entries) {
+			if (total <= target)
+				break;
+			Files.deleteIfExists(entry.getKey());
+			total -= entry.getValue().size();
+			evicted++;
+		}
+		this.sizeBytes.set(total);
+		log.info("Evicted " + evicted + " decompilation cache entries, " + (total / 1024 / 1024) + " MB left");
+	}
+
+	long measure() throws IOException {
+		try (Stream<Path> files = Files.walk(this.directory)) {
+			return files.filter(f -> f.toString().endsWith(".gz")).mapToLong(f -> {
+				try {
+					return Files.size(f);
+				} catch (IOException e) {
+					return 0;
+				}
+			}).sum();
+		}
+	}
+
+	void touch(Path file) {
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// Not critical - the entry will just be evicted sooner
+		}
+	}
+
+	Path fileOf(String key) {
+		return this.directory.resolve(key.substring(0, 2)).resolve(key + ".gz");
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Decompilation cache: %d hits, %d misses, %d stored", this.hits.sum(),
+				this.misses.sum(), this.stores.sum());
+	}
+
+	static String sha256(byte[]... parts) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (byte[] part : parts) {
+				digest.update(part);
+			}
+			StringBuilder hex = new StringBuilder(64);
+			for (byte b : digest.digest()) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * What a class decompiled into: the Java sources written (usually one), and
+	 * the hashes of the inner classes they include
+	 */
+	public static class Portion {
+		final Map<String, String> innerClassHashes;
+		final List<String[]> sources;
+
+		public Portion(Map<String, String> innerClassHashes, List<String[]> sources) {
+			this.innerClassHashes = innerClassHashes;
+			this.sources = sources;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(this.innerClassHashes.size());
+			for (Map.Entry<String, String> inner : this.innerClassHashes.entrySet()) {
+				out.writeUTF(inner.getKey());
+				out.writeUTF(inner.getValue());
+			}
+			out.writeInt(this.sources.size());
+			for (String[] source : this.sources) {
+				out.writeUTF(source[0]);
+				out.writeUTF(source[1]);
+				byte[] java = source[2].getBytes(StandardCharsets.UTF_8);
+				out.writeInt(java.length);
+				out.write(java);
+			}
+		}
+
+		static Portion readFrom(DataInputStream in) throws IOException {
+			if (in.readInt() != FORMAT_VERSION)
+				throw new IOException("Unknown cache entry format");
+
+			int innerCount = in.readInt();
+			Map<String, String> innerClassHashes = new LinkedHashMap<>();
+			for (int i = 0; i < innerCount; i++) {
+				innerClassHashes.put(in.readUTF(), in.readUTF());
+			}
+			int sourceCount = in.readInt();
+			List<String[]> sources = new ArrayList<>(sourceCount);
+			for (int i = 0; i < sourceCount; i++) {
+				String packageName = in.readUTF();
+				String className = in.readUTF();
+				byte[] java = new byte[in.readInt()];
+				in.readFully(java);
+				sources.add(new String[] { packageName, className, new String(java, StandardCharsets.UTF_8) });
+			}
+			return new Portion(innerClassHashes, sources.isEmpty() ? Collections.emptyList() : sources);
+		}
+	}
+
+}
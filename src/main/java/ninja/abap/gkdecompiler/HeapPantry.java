@@ -0,0 +1,57 @@
+package ninja.abap.gkdecompiler;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class store that keeps every class in the Java heap
+ */
+public class HeapPantry implements Pantry {
+
+	final Map<String, byte[]> classes;
+
+	public HeapPantry() {
+		this(new ConcurrentHashMap<>(10000));
+	}
+
+	public HeapPantry(Map<String, byte[]> classes) {
+		this.classes = classes;
+	}
+
+	@Override
+	public void put(String path, byte[] contents) {
+		this.classes.put(path, contents);
+	}
+
+	@Override
+	public byte[] get(String path) {
+		return this.classes.get(path);
+	}
+
+	@Override
+	public void remove(String path) {
+		this.classes.remove(path);
+	}
+
+	@Override
+	public Set<String> paths() {
+		return this.classes.keySet();
+	}
+
+	@Override
+	public int size() {
+		return this.classes.size();
+	}
+
+	@Override
+	public void clear() {
+		this.classes.clear();
+	}
+
+	@Override
+	public void close() {
+		clear();
+	}
+
+}
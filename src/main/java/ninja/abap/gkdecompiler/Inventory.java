@@ -0,0 +1,198 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writer of the file list CSV
+ *
+ * Rows are taken from any thread through a lock-free queue and written by a
+ * background thread, which encodes them (RFC 4180, UTF-8) into a reusable
+ * buffer and only writes it out once it is full. Producers are only held back
+ * if the writer falls behind by more than MAX_QUEUED_ROWS rows.
+ */
+public class Inventory implements Closeable {
+	static final byte[] HEADER = "Path,Archive (parent),Extracted?,Decompiled?\r\n".getBytes();
+	static final int BUFFER_SIZE = 256 * 1024;
+	static final int MAX_QUEUED_ROWS = 64 * 1024;
+
+	final FileChannel file;
+	final WritableByteChannel output;
+	final ByteBuffer buffer;
+
+	final Queue<Row> rows = new ConcurrentLinkedQueue<>();
+	final AtomicInteger queuedRows = new AtomicInteger(0);
+	final Thread writer;
+
+	volatile boolean closing = false;
+	volatile IOException failure;
+
+	/**
+	 * @param compressed gzip the file (its name should end with .gz)
+	 */
+	public Inventory(Path filePath, boolean compressed) throws IOException {
+		this.file = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		if (compressed) {
+			this.output = Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(this.file), 64 * 1024));
+			this.buffer = ByteBuffer.allocate(BUFFER_SIZE); // copied to a byte[] anyway
+		} else {
+			this.output = this.file;
+			this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+		this.buffer.put(HEADER);
+
+		this.writer = new Thread(this::write, "inventory-writer");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Queues a row (thread-safe)
+	 */
+	public void add(String relativePath, String parentName, boolean extracted, boolean decompiled) throws IOException {
+		if (this.failure != null)
+			throw this.failure;
+
+		this.rows.offer(new Row(relativePath, parentName, extracted, decompiled));
+		if (this.queuedRows.incrementAndGet() > MAX_QUEUED_ROWS) {
+			LockSupport.unpark(this.writer);
+			while (this.queuedRows.get() > MAX_QUEUED_ROWS && this.failure == null)
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+		}
+	}
+
+	/**
+	 * Writes all queued rows and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		this.closing = true;
+		LockSupport.unpark(this.writer);
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			this.output.close();
+		} finally {
+			this.file.close();
+		}
+		if (this.failure != null)
+			throw this.failure;
+	}
+
+	void write() {
+		try {
+			for (;;) {
+				boolean closing = this.closing; // (read before draining: nothing is added after it is set)
+				Row row;
+				while ((row = this.rows.poll()) != null) {
+					this.queuedRows.decrementAndGet();
+					encode(row);
+				}
+				if (closing)
+					break;
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+			}
+			flush();
+		} catch (IOException e) {
+			this.failure = e;
+			this.rows.clear();
+			this.queuedRows.set(0);
+		}
+	}
+
+	void encode(Row row) throws IOException {
+		// Worst case: 3 bytes per char (escaped double-quotes take 2)
+		int maxLength = 3 * (row.relativePath.length() + row.parentName.length()) + 16;
+		if (this.buffer.remaining() < maxLength)
+			flush();
+		if (this.buffer.remaining() < maxLength) {
+			// Only for absurdly long paths
+			ByteBuffer large = ByteBuffer.allocate(maxLength);
+			encode(row, large);
+			((Buffer) large).flip();
+			while (large.hasRemaining())
+				this.output.write(large);
+			return;
+		}
+		encode(row, this.buffer);
+	}
+
+	static void encode(Row row, ByteBuffer target) {
+		putColumn(row.relativePath, target);
+		target.put((byte) ',');
+		putColumn(row.parentName, target);
+		target.put((byte) ',');
+		putColumn(row.extracted ? "X" : "", target);
+		target.put((byte) ',');
+		putColumn(row.decompiled ? "X" : "", target);
+		target.put((byte) '\r').put((byte) '\n');
+	}
+
+	/**
+	 * Wraps a column in double-quotes, doubling the ones inside it (RFC 4180)
+	 */
+	static void putColumn(String value, ByteBuffer target) {
+		target.put((byte) '"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				target.put((byte) '"').put((byte) '"');
+			} else if (c < 0x80) {
+				target.put((byte) c);
+			} else if (c < 0x800) {
+				target.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				target.put((byte) (0xF0 | (codePoint >> 18))).put((byte) (0x80 | ((codePoint >> 12) & 0x3F)))
+						.put((byte) (0x80 | ((codePoint >> 6) & 0x3F))).put((byte) (0x80 | (codePoint & 0x3F)));
+			} else if (Character.isSurrogate(c)) {
+				target.put((byte) '?'); // unpaired surrogate, same as String.getBytes
+			} else {
+				target.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F)))
+						.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		target.put((byte) '"');
+	}
+
+	void flush() throws IOException {
+		((Buffer) this.buffer).flip();
+		while (this.buffer.hasRemaining())
+			this.output.write(this.buffer);
+		((Buffer) this.buffer).clear();
+	}
+
+	static class Row {
+		final String relativePath;
+		final String parentName;
+		final boolean extracted;
+		final boolean decompiled;
+
+		Row(String relativePath, String parentName, boolean extracted, boolean decompiled) {
+			this.relativePath = relativePath;
+			this.parentName = parentName;
+			this.extracted = extracted;
+			this.decompiled = decompiled;
+		}
+	}
+
+}
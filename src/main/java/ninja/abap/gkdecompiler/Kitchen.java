@@ -22,4 +22,85 @@ public abstract class Kitchen {
 	public static List<Pattern> decompileIncludePatterns = new ArrayList<>();
 	public static List<Pattern> decompileExcludePatterns = new ArrayList<>();
 
+	// Pipelined bake: max. number of extracted classes waiting to be decompiled
+	// (0 = extract everything first, then decompile)
+	public static int pipelineQueueDepth = 0;
+
+	// Keep classes to decompile in a memory-mapped temp. file instead of the heap
+	public static boolean diskBackedClassStore = false;
+
+	// Number of decompiler threads (each with its own CFR driver)
+	public static int decompileThreads = Runtime.getRuntime().availableProcessors();
+
+	// Max. number of classes (of the same package) decompiled in a single CFR pass
+	public static int decompileBatchSize = 50;
+
+	// Let CFR look up classes that are not decompiled (read on demand from the
+	// archive, nested archives spooled to temporary files), keeping up to
+	// referenceCacheBytes of them in memory
+	public static boolean resolveReferencedClasses = false;
+	public static long referenceCacheBytes = 64L * 1024 * 1024;
+
+	// Skip entries that did not change since the last bake into the same
+	// destination directory (see Leftovers)
+	public static boolean incrementalBake = false;
+
+	// Number of threads walking nested archives in parallel (1 = one at a time;
+	// more make the rows of the file list CSV come in a different order each
+	// run), and how many bytes of deeper nested archives may be held in memory
+	// for them (shared by the bakes of a NightShift)
+	public static int extractThreads = 1;
+	public static long extractSpoolBytes = 256L * 1024 * 1024;
+
+	// Write the file list CSV gzipped
+	public static boolean compressFileList = false;
+
+	// Directory of the decompilation cache shared across bakes (null = no cache),
+	// evicting the least recently used sources beyond decompileCacheMaxBytes
+	public static String decompileCacheDirectory = null;
+	public static long decompileCacheMaxBytes = 2L * 1024 * 1024 * 1024;
+
+	// Decompile classes with the same bytes (e.g. copies of a JAR) only once, and
+	// keep same-path classes with different bytes apart (see Sieve - with more
+	// than one extractThreads, which copy wins may differ from run to run)
+	public static boolean deduplicateClasses = false;
+
+	// Heap the bake should stay within, spilling classes to disk and easing off
+	// extraction and decompilation as it gets close (0 = no budget, see Thermostat)
+	public static long heapBudgetBytes = 0;
+
+	// Time budget of a class in CFR, after which it is abandoned (0 = no limit, see
+	// EggTimer), and whether to retry it once on its own with cheaper CFR options
+	public static long decompileTimeoutMillis = 0;
+	public static boolean retryTimedOutClasses = true;
+
+	// Number of child JVMs to decompile in, sharing Kitchen.decompileThreads (0 =
+	// decompile in this JVM, see Brigade), and extra JVM options for them (e.g.
+	// "-Xmx2g")
+	public static int workerProcesses = 0;
+	public static String workerJvmOptions = "";
+
+	// Number of slowest classes listed in the bake report (see Receipt)
+	public static int receiptSlowestClasses = 20;
+
+	// How often progress listeners are updated (see KitchenTimer)
+	public static long progressIntervalMillis = 250;
+
+	// Threads writing extracted files and decompiled sources behind the workers'
+	// backs (0 = workers write them themselves), and how many files (and bytes of
+	// them) may be waiting
+	public static int outputThreads = 2;
+	public static int outputQueueDepth = 1024;
+	public static long outputQueueBytes = 64L * 1024 * 1024;
+
+	// Write-behind on a virtual thread per file instead of the outputThreads, on
+	// Java 21 and later (see Runners)
+	public static boolean virtualThreadOutput = true;
+
+	// Pack extracted files and sources into a single archive ("zip" or "jar") in
+	// the destination directory instead of writing them as files (null = files),
+	// with the given compression level (0-9, -1 = default)
+	public static String outputArchive = null;
+	public static int outputCompressionLevel = -1;
+
 }
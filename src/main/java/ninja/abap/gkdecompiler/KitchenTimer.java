@@ -0,0 +1,323 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Progress of a bake
+ *
+ * Worker threads only bump lock-free counters (see Phase); a timer thread reads
+ * them every Kitchen.progressIntervalMillis, works out rates and the ETA, and
+ * hands a Snapshot to each listener on the listener's own executor (e.g. the
+ * Swing event thread). A listener still busy with the previous snapshot skips
+ * the new one, so slow listeners never hold back the bake or pile up work.
+ *
+ * Extraction is considered from 0% to 50% overall progress (going by the
+ * entries of the root archive) and decompilation from 50% to 100% (going by the
+ * classes queued so far).
+ */
+public class KitchenTimer implements Closeable {
+	private final Logger log = Logger.getLogger(KitchenTimer.class.getName());
+
+	// Weight of rates measured in the last interval vs. the previous average
+	static final double RATE_SMOOTHING = 0.3;
+
+	public final Phase extract = new Phase("extract", "Extracting");
+	public final Phase decompile = new Phase("decompile", "Decompiling classes");
+
+	final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	final long intervalMillis;
+	ScheduledExecutorService ticker;
+
+	public KitchenTimer(long intervalMillis) {
+		this.intervalMillis = intervalMillis;
+	}
+
+	/**
+	 * @param executor where the listener is called (one snapshot at a time)
+	 */
+	public void addListener(Consumer<Snapshot> listener, Executor executor) {
+		this.listeners.add(new Listener(listener, executor));
+	}
+
+	public synchronized void start() {
+		if (this.ticker != null)
+			return;
+		this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "kitchen-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.ticker.scheduleAtFixedRate(this::tick, 0, this.intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the timer, handing a last snapshot to every listener
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.ticker == null)
+			return;
+		this.ticker.shutdown();
+		try {
+			this.ticker.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.ticker = null;
+
+		Snapshot last = snapshot(System.nanoTime());
+		for (Listener listener : this.listeners) {
+			listener.deliver(last, true);
+		}
+	}
+
+	void tick() {
+		try {
+			Snapshot snapshot = snapshot(System.nanoTime());
+			for (Listener listener : this.listeners) {
+				listener.deliver(snapshot, false);
+			}
+		} catch (RuntimeException e) {
+			// (an exception would cancel the timer)
+			log.log(Level.WARNING, "Progress update failed", e);
+		}
+	}
+
+	/**
+	 * Only called from the timer thread (or once it is stopped)
+	 */
+	Snapshot snapshot(long now) {
+		this.extract.measure(now);
+		this.decompile.measure(now);
+
+		int percent = (int) Math.min(100, 50 * this.extract.fraction() + 50 * this.decompile.fraction());
+		Phase phase = this.decompile.started() && (this.extract.finished() || !this.extract.started())
+				? this.decompile
+				: this.extract;
+
+		String text = phase.title;
+		String current = phase.current;
+		if (current != null)
+			text += " " + current;
+
+		// Both phases have to finish before the bake is done
+		long etaSeconds = -1;
+		if (phase.etaSeconds >= 0)
+			etaSeconds = phase == this.extract && this.decompile.etaSeconds >= 0
+					? Math.max(phase.etaSeconds, this.decompile.etaSeconds)
+					: phase.etaSeconds;
+
+		return new Snapshot(phase.name, text, percent, phase.items.sum(), phase.bytes.sum(), phase.itemsPerSecond,
+				phase.bytesPerSecond, etaSeconds);
+	}
+
+	/**
+	 * Counters of a phase, updated by any number of threads
+	 */
+	public static class Phase {
+		final String name;
+		final String title;
+
+		// Things done (entries, classes), bytes processed, and units of work done
+		// (out of totalUnits) for the progress and ETA
+		final LongAdder items = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder units = new LongAdder();
+		final AtomicLong totalUnits = new AtomicLong(-1);
+
+		// What is being worked on (informative only)
+		volatile String current;
+
+		volatile long startTime = -1;
+		volatile long endTime = -1;
+
+		// Only used by the timer thread
+		boolean measured = false;
+		long lastTime = -1;
+		long lastItems;
+		long lastBytes;
+		long lastUnits;
+		double itemsPerSecond;
+		double bytesPerSecond;
+		double unitsPerSecond;
+		long etaSeconds = -1;
+
+		Phase(String name, String title) {
+			this.name = name;
+			this.title = title;
+		}
+
+		public void start(long totalUnits) {
+			this.totalUnits.set(totalUnits);
+			if (this.startTime < 0)
+				this.startTime = System.nanoTime();
+		}
+
+		public void finish() {
+			this.current = null;
+			this.endTime = System.nanoTime();
+		}
+
+		/**
+		 * More work turned up (e.g. classes put on the conveyor)
+		 */
+		public void addTotal(long units) {
+			this.totalUnits.accumulateAndGet(units, (total, more) -> Math.max(0, total) + more);
+		}
+
+		/**
+		 * Started on another thing (entry, class)
+		 */
+		public void item(String current) {
+			this.items.increment();
+			this.current = current;
+		}
+
+		public void bytes(long bytes) {
+			this.bytes.add(bytes);
+		}
+
+		public void items(int count) {
+			this.items.add(count);
+		}
+
+		public void done(int units) {
+			this.units.add(units);
+		}
+
+		boolean started() {
+			return this.startTime >= 0;
+		}
+
+		boolean finished() {
+			return this.endTime >= 0;
+		}
+
+		double fraction() {
+			if (finished())
+				return 1;
+			long total = this.totalUnits.get();
+			if (!started() || total <= 0)
+				return 0;
+			return Math.min(1, (double) this.units.sum() / total);
+		}
+
+		void measure(long now) {
+			long items = this.items.sum();
+			long bytes = this.bytes.sum();
+			long units = this.units.sum();
+
+			if (!started() || finished()) {
+				this.etaSeconds = finished() ? 0 : -1;
+				if (finished() && this.endTime > this.startTime) {
+					double seconds = (this.endTime - this.startTime) / 1e9;
+					this.itemsPerSecond = items / seconds;
+					this.bytesPerSecond = bytes / seconds;
+				}
+				return;
+			}
+
+			if (this.lastTime < 0)
+				this.lastTime = this.startTime;
+			double seconds = (now - this.lastTime) / 1e9;
+			if (seconds > 0) {
+				this.itemsPerSecond = smooth(this.itemsPerSecond, (items - this.lastItems) / seconds);
+				this.bytesPerSecond = smooth(this.bytesPerSecond, (bytes - this.lastBytes) / seconds);
+				this.unitsPerSecond = smooth(this.unitsPerSecond, (units - this.lastUnits) / seconds);
+			}
+			this.measured = true;
+			this.lastTime = now;
+			this.lastItems = items;
+			this.lastBytes = bytes;
+			this.lastUnits = units;
+
+			long total = this.totalUnits.get();
+			this.etaSeconds = total >= 0 && this.unitsPerSecond > 0
+					? (long) Math.ceil(Math.max(0, total - units) / this.unitsPerSecond)
+					: -1;
+		}
+
+		double smooth(double average, double rate) {
+			return this.measured ? RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * average : rate;
+		}
+	}
+
+	/**
+	 * Progress at one point in time
+	 */
+	public static class Snapshot {
+		public final String phase;
+		public final String text;
+		public final int percent;
+		public final long items;
+		public final long bytes;
+		public final double itemsPerSecond;
+		public final double bytesPerSecond;
+		public final long etaSeconds; // -1 = unknown
+
+		Snapshot(String phase, String text, int percent, long items, long bytes, double itemsPerSecond,
+				double bytesPerSecond, long etaSeconds) {
+			this.phase = phase;
+			this.text = text;
+			this.percent = percent;
+			this.items = items;
+			this.bytes = bytes;
+			this.itemsPerSecond = itemsPerSecond;
+			this.bytesPerSecond = bytesPerSecond;
+			this.etaSeconds = etaSeconds;
+		}
+
+		/**
+		 * e.g. "1,234 entries/s, 5.6 MB/s, ETA 1:02"
+		 */
+		public String rates() {
+			String rates = String.format("%,.0f %s/s, %.1f MB/s", this.itemsPerSecond,
+					"decompile".equals(this.phase) ? "classes" : "entries", this.bytesPerSecond / 1024 / 1024);
+			if (this.etaSeconds >= 0)
+				rates += String.format(", ETA %d:%02d", this.etaSeconds / 60, this.etaSeconds % 60);
+			return rates;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d%% %s (%s)", this.percent, this.text, rates());
+		}
+	}
+
+	static class Listener {
+		final Consumer<Snapshot> consumer;
+		final Executor executor;
+		final AtomicBoolean busy = new AtomicBoolean(false);
+
+		Listener(Consumer<Snapshot> consumer, Executor executor) {
+			this.consumer = consumer;
+			this.executor = executor;
+		}
+
+		void deliver(Snapshot snapshot, boolean always) {
+			if (!this.busy.compareAndSet(false, true) && !always)
+				return; // still busy with the previous one
+
+			this.executor.execute(() -> {
+				try {
+					this.consumer.accept(snapshot);
+				} finally {
+					this.busy.set(false);
+				}
+			});
+		}
+	}
+
+}
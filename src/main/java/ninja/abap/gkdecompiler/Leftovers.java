@@ -0,0 +1,275 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Manifest of a previous bake into the same destination directory (incremental
+ * re-runs)
+ * 
+ * Records every entry (archive chain, path, CRC) with the output it produced,
+ * along with a hash of the Kitchen patterns it was baked with. The next bake
+ * skips entries whose CRC did not change and whose output is still there, and
+ * deletes the outputs of entries that are gone.
+ * 
+ * Classes are decompiled per outer class (Foo and every Foo$*, see
+ * Potato.javaSourcePath), so they are only skipped as a group: unchanged
+ * classes are set aside until any of their group changes, or until their
+ * archive is walked and none of it changed or disappeared (see take/settle).
+ */
+public class Leftovers {
+	private final Logger log = Logger.getLogger(Leftovers.class.getName());
+
+	static final String HEADER = "# GK Decompiler manifest v1, patterns ";
+
+	final Path manifestPath;
+	final String destinationPath;
+	final String patternsHash;
+
+	final Map<String, Record> previous = new ConcurrentHashMap<>();
+	final Map<String, Record> current = new ConcurrentHashMap<>(10000);
+	// Number of classes of each group in the previous bake (see groupKeyOf)
+	final Map<String, Integer> previousGroups = new ConcurrentHashMap<>();
+	// Groups of the archives being walked, by archive chain
+	final Map<List<String>, Map<String, Tray>> trays = new ConcurrentHashMap<>();
+
+	final LongAdder skippedEntries = new LongAdder();
+	final LongAdder processedEntries = new LongAdder();
+
+	public Leftovers(String destinationPath, String rootLocalName) throws IOException {
+		this.destinationPath = destinationPath;
+		this.manifestPath = Paths.get(destinationPath, "gk-decompiler-manifest_" + rootLocalName + ".tsv");
+		this.patternsHash = hashPatterns();
+		load();
+	}
+
+	/**
+	 * @return true if the entry did not change since the last bake and its output
+	 *         is still there (so there is no need to process it again)
+	 */
+	public boolean isFresh(List<String> archiveChain, String entryName, long crc) {
+		Record record = this.previous.get(keyOf(archiveChain, entryName));
+		if (crc == -1 || record == null || record.crc != crc)
+			return false;
+
+		return record.output.isEmpty() || Files.exists(Paths.get(this.destinationPath, record.output));
+	}
+
+	/**
+	 * Records an entry of this bake
+	 * 
+	 * @param output path of the file produced, relative to the destination
+	 *               directory (empty if none)
+	 * @param fresh  whether the entry was skipped (see isFresh)
+	 */
+	public void record(List<String> archiveChain, String entryName, long crc, String output, boolean fresh) {
+		String key = keyOf(archiveChain, entryName);
+		this.current.put(key, new Record(key, crc, output));
+		if (output.isEmpty())
+			return;
+		count(fresh, 1);
+	}
+
+	/**
+	 * Records a class of this bake, setting it aside if it did not change (see
+	 * isFresh) - unless something else of its group did
+	 * 
+	 * @param output path of the source of its outer class (see
+	 *               Potato.javaSourcePath)
+	 * @return the classes to process now: the class itself along with those of
+	 *         its group set aside so far, once any of the group changed - or none
+	 */
+	public Map<String, byte[]> take(List<String> archiveChain, String entryName, long crc, String output,
+			byte[] contents) {
+		String key = keyOf(archiveChain, entryName);
+		this.current.put(key, new Record(key, crc, output));
+		boolean fresh = isFresh(archiveChain, entryName, crc);
+
+		Tray tray = this.trays.computeIfAbsent(archiveChain, chain -> new ConcurrentHashMap<>())
+				.computeIfAbsent(keyOf(archiveChain, output), groupKey -> new Tray());
+		Map<String, byte[]> stale;
+		synchronized (tray) {
+			if (fresh && !tray.spoiled) {
+				tray.classes.put(entryName, contents);
+				return Collections.emptyMap();
+			}
+			stale = tray.classes;
+			stale.put(entryName, contents);
+			tray.classes = new LinkedHashMap<>();
+			tray.spoiled = true;
+		}
+		count(false, stale.size());
+		return stale;
+	}
+
+	/**
+	 * Closes the groups of an archive (once walked): those still set aside are
+	 * only fresh if none of their classes disappeared either
+	 * 
+	 * @return the groups set aside (Tray.spoiled if they must be processed after
+	 *         all)
+	 */
+	public List<Tray> settle(List<String> archiveChain) {
+		Map<String, Tray> groups = this.trays.remove(archiveChain);
+		if (groups == null)
+			return Collections.emptyList();
+
+		List<Tray> settled = new ArrayList<>();
+		for (Map.Entry<String, Tray> group : groups.entrySet()) {
+			Tray tray = group.getValue();
+			if (tray.classes.isEmpty())
+				continue;
+			tray.spoiled = tray.classes.size() != this.previousGroups.getOrDefault(group.getKey(), 0);
+			count(!tray.spoiled, tray.classes.size());
+			settled.add(tray);
+		}
+		return settled;
+	}
+
+	private void count(boolean fresh, int entries) {
+		if (fresh)
+			this.skippedEntries.add(entries);
+		else
+			this.processedEntries.add(entries);
+	}
+
+	/**
+	 * Deletes the outputs of entries that are gone and saves the new manifest
+	 */
+	public void save() throws IOException {
+		Set<String> currentOutputs = new HashSet<>();
+		this.current.values().forEach(record -> currentOutputs.add(record.output));
+
+		int deletedOutputs = 0;
+		for (Record record : this.previous.values()) {
+			if (record.output.isEmpty() || currentOutputs.contains(record.output))
+				continue;
+			try {
+				if (Files.deleteIfExists(Paths.get(this.destinationPath, record.output)))
+					deletedOutputs++;
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Failed to delete stale output " + record.output, e);
+			}
+		}
+
+		// Write to a temp. file first, so an interrupted bake never leaves a broken
+		// manifest behind
+		Path tempPath = this.manifestPath.resolveSibling(this.manifestPath.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+			writer.write(HEADER + this.patternsHash + "\n");
+			for (Record record : this.current.values()) {
+				writer.write(record.key + "\t" + Long.toHexString(record.crc) + "\t" + record.output + "\n");
+			}
+		}
+		Files.move(tempPath, this.manifestPath, StandardCopyOption.REPLACE_EXISTING);
+
+		log.info(String.format("Incremental bake: %d entries skipped (unchanged), %d processed, %d stale outputs deleted",
+				this.skippedEntries.sum(), this.processedEntries.sum(), deletedOutputs));
+	}
+
+	void load() throws IOException {
+		if (!Files.exists(this.manifestPath))
+			return;
+
+		try (BufferedReader reader = Files.newBufferedReader(this.manifestPath, StandardCharsets.UTF_8)) {
+			String line = reader.readLine();
+			if (line == null || !line.equals(HEADER + this.patternsHash)) {
+				log.info("Kitchen patterns changed since the last bake => processing everything again");
+				skipAll(reader);
+				return;
+			}
+
+			while ((line = reader.readLine()) != null) {
+				String[] columns = line.split("\t", -1);
+				if (columns.length != 3)
+					continue;
+				this.previous.put(columns[0], new Record(columns[0], Long.parseUnsignedLong(columns[1], 16), columns[2]));
+				if (columns[0].endsWith(".class"))
+					this.previousGroups.merge(groupKeyOf(columns[0], columns[2]), 1, Integer::sum);
+			}
+		}
+		log.info("Previous bake manifest: " + this.previous.size() + " entries");
+	}
+
+	/**
+	 * Keeps the previous outputs (to delete the stale ones), but not their CRCs
+	 */
+	private void skipAll(BufferedReader reader) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] columns = line.split("\t", -1);
+			if (columns.length == 3)
+				this.previous.put(columns[0], new Record(columns[0], -1, columns[2]));
+		}
+	}
+
+	static String keyOf(List<String> archiveChain, String entryName) {
+		return archiveChain.isEmpty() ? entryName : String.join(" > ", archiveChain) + " > " + entryName;
+	}
+
+	/**
+	 * @return the key of the group of a class (same as keyOf(archiveChain,
+	 *         output))
+	 */
+	static String groupKeyOf(String key, String output) {
+		int separator = key.lastIndexOf(" > ");
+		return separator < 0 ? output : key.substring(0, separator + 3) + output;
+	}
+
+	static String hashPatterns() {
+		StringBuilder patterns = new StringBuilder();
+		for (List<Pattern> list : Arrays.asList(Kitchen.extractIncludePatterns, Kitchen.extractExcludePatterns,
+				Kitchen.decompileIncludePatterns, Kitchen.decompileExcludePatterns)) {
+			list.forEach(pattern -> patterns.append(pattern.flags()).append(':').append(pattern.pattern()).append('\n'));
+			patterns.append("--\n");
+		}
+		return Long.toHexString(crc32(patterns.toString().getBytes(StandardCharsets.UTF_8)));
+	}
+
+	static long crc32(byte[] contents) {
+		CRC32 crc = new CRC32();
+		crc.update(contents, 0, contents.length);
+		return crc.getValue();
+	}
+
+	/**
+	 * Classes of the same outer class (and archive) set aside
+	 */
+	static class Tray {
+		Map<String, byte[]> classes = new LinkedHashMap<>();
+		boolean spoiled; // something changed => processed after all
+	}
+
+	static class Record {
+		final String key;
+		final long crc;
+		final String output;
+
+		Record(String key, long crc, String output) {
+			this.key = key;
+			this.crc = crc;
+			this.output = output;
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Output stage that packs extracted files and decompiled sources into a single
+ * zip (or sources jar) instead of writing them as a directory tree
+ *
+ * Any number of workers send files, and a single I/O thread streams them into
+ * the archive in the order they arrive. Files too big to be held in memory are
+ * spooled to a temp. file first.
+ *
+ * A zip cannot hold the same path twice, so only the first file sent for a path
+ * is kept (a directory keeps the last one).
+ */
+public class Lunchbox extends Dumbwaiter {
+	private final Logger log = Logger.getLogger(Lunchbox.class.getName());
+
+	final Path archive;
+	final Path root;
+	final ZipOutputStream zip;
+
+	// Only used by the I/O thread
+	final Set<String> names = new HashSet<>();
+
+	final LongAdder duplicates = new LongAdder();
+
+	/**
+	 * @param root             directory the files are sent as being in (their path
+	 *                         in the archive is relative to it)
+	 * @param compressionLevel 0-9, or -1 for the default one
+	 */
+	public Lunchbox(Path archive, Path root, int compressionLevel, int queueDepth, long queueBytes)
+			throws IOException {
+		super(1, queueDepth, queueBytes);
+		this.archive = archive;
+		this.root = root;
+
+		if (archive.getParent() != null)
+			Files.createDirectories(archive.getParent());
+		this.zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(archive), 256 * 1024));
+		this.zip.setLevel(compressionLevel);
+	}
+
+	@Override
+	long writeNow(Path file, byte[] head, int headLength, InputStream rest) throws IOException {
+		Path spool = Files.createTempFile(this.archive.toAbsolutePath().getParent(), "lunchbox", ".tmp");
+		long length = headLength;
+		try {
+			try (OutputStream out = Files.newOutputStream(spool)) {
+				out.write(head, 0, headLength);
+				int read;
+				while ((read = rest.read(head)) != -1) {
+					out.write(head, 0, read);
+					length += read;
+				}
+			}
+
+			Order order = new Order(file, null, (int) Math.min(Integer.MAX_VALUE, length), false);
+			order.spool = spool;
+			queue(order);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(spool);
+			throw e;
+		} finally {
+			this.buffers.giveBack(head);
+		}
+		return length;
+	}
+
+	@Override
+	void deliver(Order order) throws IOException {
+		String name = this.root.relativize(order.file).toString().replace('\\', '/');
+		if (!this.names.add(name)) {
+			this.duplicates.increment();
+			if (log.isLoggable(Level.FINE))
+				log.fine("Already in " + this.archive.getFileName() + ": " + name);
+			return;
+		}
+
+		this.zip.putNextEntry(new ZipEntry(name));
+		if (order.spool != null)
+			Files.copy(order.spool, this.zip);
+		else
+			this.zip.write(order.contents, 0, order.length);
+		this.zip.closeEntry();
+	}
+
+	/**
+	 * Writes whatever is left in the queue and completes the archive
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			this.zip.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ", " + this.duplicates.sum() + " duplicate paths skipped (in "
+				+ this.archive.getFileName() + ")";
+	}
+
+}
@@ -0,0 +1,126 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class store backed by a temporary file in the destination directory
+ * 
+ * Classes are appended to memory-mapped segments of the file and read back as
+ * slices of them, so the heap only holds the path => offset index and the OS
+ * page cache takes care of the rest. The file is append-only: removed classes
+ * are dropped from the index but their space is only reclaimed on close.
+ */
+public class MappedPantry implements Pantry {
+	private final Logger log = Logger.getLogger(MappedPantry.class.getName());
+
+	// Classes never span segments, so this is also the size of the largest class
+	// that shares a segment with others (bigger ones get a segment of their own)
+	static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	final Path filePath;
+	final FileChannel channel;
+	final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+	final Map<String, Slice> index = new ConcurrentHashMap<>(10000);
+
+	MappedByteBuffer currentSegment;
+	long fileSize = 0;
+
+	public MappedPantry(String destinationPath) throws IOException {
+		this.filePath = Files.createTempFile(Files.createDirectories(Paths.get(destinationPath)), "gk-decompiler-",
+				".classes");
+		this.channel = FileChannel.open(this.filePath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	@Override
+	public synchronized void put(String path, byte[] contents) throws IOException {
+		if (this.currentSegment == null || this.currentSegment.remaining() < contents.length) {
+			int segmentSize = Math.max(SEGMENT_SIZE, contents.length);
+			this.currentSegment = this.channel.map(FileChannel.MapMode.READ_WRITE, this.fileSize, segmentSize);
+			this.segments.add(this.currentSegment);
+			this.fileSize += segmentSize;
+		}
+
+		int offset = this.currentSegment.position();
+		this.currentSegment.put(contents);
+		this.index.put(path, new Slice(this.segments.size() - 1, offset, contents.length));
+	}
+
+	@Override
+	public byte[] get(String path) {
+		Slice slice = this.index.get(path);
+		if (slice == null)
+			return null;
+
+		// CFR wants a byte array, so there is no way around this copy
+		byte[] contents = new byte[slice.length];
+		ByteBuffer view = this.segments.get(slice.segment).duplicate();
+		((Buffer) view).position(slice.offset); // (Buffer: Java 8 has no ByteBuffer.position)
+		view.get(contents);
+		return contents;
+	}
+
+	@Override
+	public void remove(String path) {
+		this.index.remove(path);
+	}
+
+	@Override
+	public Set<String> paths() {
+		return this.index.keySet();
+	}
+
+	@Override
+	public int size() {
+		return this.index.size();
+	}
+
+	@Override
+	public void clear() {
+		this.index.clear();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		clear();
+		this.segments.clear();
+		this.currentSegment = null;
+		this.channel.close();
+
+		// Mapped segments are only released on GC - on Windows the file may still be
+		// locked at this point
+		try {
+			Files.deleteIfExists(this.filePath);
+		} catch (IOException e) {
+			log.log(Level.FINE, "Could not delete " + this.filePath + " yet, will retry on exit", e);
+			this.filePath.toFile().deleteOnExit();
+		}
+	}
+
+	static class Slice {
+		final int segment;
+		final int offset;
+		final int length;
+
+		Slice(int segment, int offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+}
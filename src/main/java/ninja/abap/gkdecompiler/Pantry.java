@@ -0,0 +1,34 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Where the extracted classes wait to be decompiled (class store)
+ * 
+ * Keys are the class file paths inside their archive, e.g.
+ * "ninja/abap/HelloWorld.class".
+ */
+public interface Pantry extends Closeable {
+
+	void put(String path, byte[] contents) throws IOException;
+
+	/**
+	 * @return the class file contents, or null if the class is not stored
+	 */
+	byte[] get(String path) throws IOException;
+
+	void remove(String path);
+
+	Set<String> paths();
+
+	int size();
+
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	void clear();
+
+}
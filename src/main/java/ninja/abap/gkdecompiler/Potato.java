@@ -1,12 +1,11 @@
 package ninja.abap.gkdecompiler;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -15,18 +14,27 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
-import java.util.regex.Matcher;
-import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
@@ -40,36 +48,211 @@ public class Potato {
 	String rootArchivePath;
 	String destinationPath;
 
-	List<ZipInputStream> openZipStreams = new ArrayList<>(1000);
-	Map<String, byte[]> classFiles = new HashMap<>(10000);
-	FileChannel csvFile;
+	List<ZipInputStream> openZipStreams = Collections.synchronizedList(new ArrayList<>(1000));
+	Pantry classFiles = new HeapPantry();
+	Inventory csvFile;
+	Conveyor conveyor;
+	Stove stove;
+	ShoppingList references;
+	Leftovers leftovers;
+	Freezer freezer;
+	Receipt receipt;
+	Dumbwaiter waiter;
+	Sieve sieve;
+	Thermostat thermostat;
+	EggTimer eggTimer;
+
+	// Weights of the classes to decompile, to schedule the heaviest first
+	final Scale scale = new Scale();
+
+	// Archive chain of the class being extracted by the current thread (see
+	// storeClass)
+	final ThreadLocal<List<String>> currentArchiveChain = new ThreadLocal<>();
+
+	// Kitchen patterns, compiled once per bake (see extract)
+	Colander extractColander;
+	Colander decompileColander;
+
+	// Worker pools shared by several bakes (see shareWorkers), if any
+	Stove sharedStove;
+	int sharedBurners;
+	ForkJoinPool sharedExtractors;
+	Semaphore sharedSpoolBudget;
+	boolean separateLogFile = true;
+
+	// Outcome of the bake
+	final AtomicInteger handledEntries = new AtomicInteger(0);
+	final AtomicInteger decompiledClasses = new AtomicInteger(0);
+	final AtomicInteger failedClasses = new AtomicInteger(0);
+
+	// Parallel extraction of nested archives (see forkArchive)
+	ForkJoinPool extractors;
+	ZipFile rootZipFile;
+	Semaphore spoolBudget; // in KB
+	final Queue<ForkJoinTask<?>> pendingArchives = new ConcurrentLinkedQueue<>();
+	final AtomicReference<Exception> extractFailure = new AtomicReference<>();
+
+	// Archives extracted in parallel often contain the same files (e.g.
+	// META-INF/MANIFEST.MF) => writes to the same path must not interleave
+	final Object[] fileLocks = new Object[64];
+	{
+		Arrays.setAll(this.fileLocks, i -> new Object());
+	}
+
+	// 64KB covers all but the biggest classes we usually find in GK JARs
+	Tupperware buffers = new Tupperware(64 * 1024, 2 * Runtime.getRuntime().availableProcessors());
 
-	List<BiConsumer<Integer, String>> progressListeners = new ArrayList<>();
+	final KitchenTimer timer = new KitchenTimer(Kitchen.progressIntervalMillis);
 
 	public Potato(String rootArchivePath, String destinationPath) {
 		this.rootArchivePath = rootArchivePath;
 		this.destinationPath = destinationPath;
 	}
 
+	/**
+	 * @param listener called with the overall progress (%) and what is being done,
+	 *                 from a timer thread
+	 */
 	public void onProgress(BiConsumer<Integer, String> listener) {
-		this.progressListeners.add(listener);
+		this.timer.addListener(snapshot -> listener.accept(snapshot.percent, snapshot.text), Runnable::run);
+	}
+
+	/**
+	 * @param executor where the listener is called (e.g. EventQueue::invokeLater)
+	 */
+	public void onProgress(Consumer<KitchenTimer.Snapshot> listener, Executor executor) {
+		this.timer.addListener(listener, executor);
+	}
+
+	/**
+	 * Runs this bake on worker pools shared with other (concurrent) bakes instead of
+	 * its own ones, which are sized by Kitchen.decompileThreads/extractThreads
+	 * 
+	 * @param burners     burners of the stove a pipelined bake occupies until it is
+	 *                    done (its share, so the other bakes are not held up)
+	 * @param extractors  null to extract on the calling thread only
+	 * @param spoolBudget spool budget of the extractors (see newSpoolBudget)
+	 */
+	public void shareWorkers(Stove stove, int burners, ForkJoinPool extractors, Semaphore spoolBudget) {
+		this.sharedStove = stove;
+		this.sharedBurners = burners;
+		this.sharedExtractors = extractors;
+		this.sharedSpoolBudget = spoolBudget;
+	}
+
+	/**
+	 * @return Kitchen.extractSpoolBytes, as permits of one KB (see forkArchive)
+	 */
+	public static Semaphore newSpoolBudget() {
+		return new Semaphore((int) Math.min(Integer.MAX_VALUE, Kitchen.extractSpoolBytes / 1024));
+	}
+
+	/**
+	 * @param separateLogFile whether the bake starts a log file of its own in the
+	 *                        destination directory (default) or logs wherever the
+	 *                        caller set up
+	 */
+	public void setSeparateLogFile(boolean separateLogFile) {
+		this.separateLogFile = separateLogFile;
+	}
+
+	public int getHandledEntries() {
+		return this.handledEntries.get();
+	}
+
+	public int getDecompiledClasses() {
+		return this.decompiledClasses.get();
+	}
+
+	public int getFailedClasses() {
+		return this.failedClasses.get();
 	}
 
 	public void bake() throws Exception {
-		startNewLogFile();
+		if (this.separateLogFile)
+			startNewLogFile();
+		this.receipt = new Receipt(Paths.get(this.rootArchivePath).getFileName().toString(),
+				Kitchen.receiptSlowestClasses);
 
 		// Create a CSV file with the complete file list
 		createCsvFile();
 
-		// Extract JAR recursively, dumping files to dest. and classes to memory
-		extract();
-
-		System.gc(); // take a small breath
+		if (Kitchen.heapBudgetBytes > 0)
+			this.thermostat = new Thermostat(Kitchen.heapBudgetBytes,
+					this.sharedStove != null ? this.sharedStove.getBurners() : Kitchen.decompileThreads);
+		if (Kitchen.decompileTimeoutMillis > 0)
+			this.eggTimer = new EggTimer(Kitchen.decompileTimeoutMillis);
+		if (Kitchen.diskBackedClassStore)
+			this.classFiles = new MappedPantry(this.destinationPath);
+		else if (this.thermostat != null)
+			this.classFiles = new Cellar(this.thermostat, this.destinationPath);
+		if (Kitchen.resolveReferencedClasses)
+			this.references = new ShoppingList(this.rootArchivePath, Kitchen.referenceCacheBytes);
+		if (Kitchen.incrementalBake && Kitchen.outputArchive != null)
+			log.warning("Incremental bakes need output as files - baking everything into " + outputArchivePath());
+		else if (Kitchen.incrementalBake)
+			this.leftovers = new Leftovers(this.destinationPath,
+					Paths.get(this.rootArchivePath).getFileName().toString());
+		if (Kitchen.deduplicateClasses)
+			this.sieve = new Sieve(Paths.get(this.rootArchivePath).getFileName().toString());
+		if (Kitchen.decompileCacheDirectory != null)
+			this.freezer = new Freezer(Kitchen.decompileCacheDirectory, Kitchen.decompileCacheMaxBytes,
+					Collections.emptyMap());
+
+		if (Kitchen.outputArchive != null)
+			this.waiter = new Lunchbox(outputArchivePath(), Paths.get(this.destinationPath),
+					Kitchen.outputCompressionLevel, Kitchen.outputQueueDepth, Kitchen.outputQueueBytes);
+		else if (Kitchen.outputThreads > 0)
+			this.waiter = new Dumbwaiter(Kitchen.outputThreads, Kitchen.outputQueueDepth, Kitchen.outputQueueBytes,
+					Kitchen.virtualThreadOutput ? Runners.hire("dumbwaiter") : null);
+		if (this.waiter != null)
+			this.waiter.receipt = this.receipt;
+
+		this.timer.start();
+		try {
+			if (Kitchen.pipelineQueueDepth > 0) {
+				// Decompile classes while they are being extracted
+				if (Kitchen.workerProcesses > 0)
+					log.warning("Pipelined bakes decompile in this process - not starting decompiler processes");
+				bakePipelined();
+			} else {
+				// Extract JAR recursively, dumping files to dest. and classes to memory
+				extract();
+
+				if (this.thermostat == null)
+					System.gc(); // take a small breath
+
+				// Decompile all classes in memory using multiple threads
+				decompile();
+			}
+		} finally {
+			// Everything is written once the output stage is done
+			if (this.waiter != null) {
+				this.waiter.close();
+				log.info(this.waiter.toString());
+				this.waiter = null;
+			}
+			this.timer.close();
+			this.receipt.close();
+			if (this.eggTimer != null)
+				this.eggTimer.close();
+			if (this.thermostat != null) {
+				this.thermostat.close();
+				log.info(this.thermostat + (this.classFiles instanceof Cellar ? ", " + this.classFiles : ""));
+			}
+		}
 
-		// Decompile all classes in memory using multiple threads
-		decompile();
+		if (this.leftovers != null)
+			this.leftovers.save();
+		if (this.sieve != null) {
+			log.info(this.sieve.toString());
+			writeConflicts();
+		}
+		if (this.eggTimer != null)
+			writeTimeouts();
 
 		log.info("Done!");
+		writeReceipt();
 		cleanup();
 	}
 
@@ -77,33 +260,46 @@ public class Potato {
 		String rootLocalName = Paths.get(this.rootArchivePath).getFileName().toString();
 		log.info("Extracting archive " + rootLocalName);
 
+		this.extractColander = new Colander(Kitchen.extractIncludePatterns, Kitchen.extractExcludePatterns, '/');
+		this.decompileColander = new Colander(Kitchen.decompileIncludePatterns, Kitchen.decompileExcludePatterns, '.');
+
 		// Extract JAR recursively, dumping files to destination directory and classes
 		// to memory
 		log.info("Extracting archive " + rootLocalName);
 
-		// Root level uses ZipFile instead of ZipInputStream as it should be ~8x faster
-		// It will also determine the overall progress
-		try (ZipFile zipFile = new ZipFile(this.rootArchivePath)) {
-			int totalEntries = zipFile.size();
-			int doneEntries = 0;
-
-			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
-			while (zipEntries.hasMoreElements()) {
-				doneEntries++;
-				ZipEntry zipEntry = zipEntries.nextElement();
-				if (zipEntry.getName().endsWith("/"))
-					continue; // ignore directories
-
-				// Extraction is considered from 0% to 50% overall progress
-				notifyProgress((50 * doneEntries) / totalEntries, "Extracting " + zipEntry.getName());
-
-				// Levels 2..∞ will use ZipInputStream as ZipFile can only read physical files
-				try (InputStream zipStream = zipFile.getInputStream(zipEntry)) {
-					handleZipEntry(rootLocalName, zipStream, zipEntry);
+		if (this.sharedStove != null) {
+			this.extractors = this.sharedExtractors;
+			this.spoolBudget = this.sharedSpoolBudget;
+		} else if (Kitchen.extractThreads > 1) {
+			this.extractors = new ForkJoinPool(Kitchen.extractThreads);
+			this.spoolBudget = newSpoolBudget();
+		}
+		if (this.receipt != null)
+			this.receipt.start("extract");
+		try {
+			// Several threads => read root entries in parallel from a memory-mapped copy
+			CuttingBoard board = this.extractors != null ? CuttingBoard.open(this.rootArchivePath) : null;
+			if (board != null) {
+				try {
+					extractMapped(rootLocalName, board);
+					awaitArchives();
+				} finally {
+					board.close();
 				}
+			} else {
+				extractSequential(rootLocalName);
 			}
+		} finally {
+			if (this.extractors != null && this.extractors != this.sharedExtractors)
+				this.extractors.shutdownNow();
+			this.extractors = null;
+			if (this.receipt != null)
+				this.receipt.stop("extract");
+			this.timer.extract.finish();
 		}
 
+		log.info("Extraction buffers: " + this.buffers);
+
 		// Clean-up
 		for (ZipInputStream stream : this.openZipStreams) {
 			stream.close();
@@ -111,95 +307,487 @@ public class Potato {
 		this.openZipStreams.clear();
 	}
 
+	void extractSequential(String rootLocalName) throws Exception {
+		// Root level uses ZipFile instead of ZipInputStream as it should be ~8x faster
+		// It will also determine the overall progress
+		try (ZipFile zipFile = new ZipFile(this.rootArchivePath)) {
+			int ordinal = 0;
+			this.timer.extract.start(zipFile.size());
+
+			this.rootZipFile = zipFile;
+			try {
+				Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+				while (zipEntries.hasMoreElements()) {
+					ZipEntry zipEntry = zipEntries.nextElement();
+					if (!zipEntry.getName().endsWith("/")) { // ignore directories
+						// Levels 2..∞ will use ZipInputStream as ZipFile can only read physical files
+						try (InputStream zipStream = zipFile.getInputStream(zipEntry)) {
+							handleZipEntry(rootLocalName, Collections.emptyList(), ordinal, zipStream, zipEntry);
+						}
+					}
+					ordinal++;
+					this.timer.extract.done(1);
+				}
+				archiveWalked(Collections.emptyList());
+
+				awaitArchives();
+			} finally {
+				this.rootZipFile = null;
+			}
+		}
+	}
+
+	/**
+	 * Splits the root entries across the extraction pool, each worker taking the
+	 * next entry (in central directory order) as soon as it is done with one
+	 */
+	void extractMapped(String rootLocalName, CuttingBoard board) throws Exception {
+		List<ZipEntry> entries = board.entries();
+		AtomicInteger nextEntry = new AtomicInteger(0);
+		this.timer.extract.start(entries.size());
+
+		List<ForkJoinTask<?>> workers = new ArrayList<>();
+		for (int i = 0; i < this.extractors.getParallelism(); i++) {
+			workers.add(this.extractors.submit(() -> {
+				int ordinal;
+				while ((ordinal = nextEntry.getAndIncrement()) < entries.size() && this.extractFailure.get() == null) {
+					ZipEntry zipEntry = entries.get(ordinal);
+					if (!zipEntry.getName().endsWith("/")) { // ignore directories
+						try (InputStream zipStream = board.getInputStream(zipEntry)) {
+							handleZipEntry(rootLocalName, Collections.emptyList(), ordinal, zipStream, zipEntry);
+						} catch (Exception e) {
+							failExtraction(rootLocalName + " > " + zipEntry.getName(), e);
+						}
+					}
+					this.timer.extract.done(1);
+				}
+			}));
+		}
+		for (ForkJoinTask<?> worker : workers) {
+			worker.join();
+		}
+		archiveWalked(Collections.emptyList());
+	}
+
+	void bakePipelined() throws Exception {
+		log.info("Pipelined bake with a queue depth of " + Kitchen.pipelineQueueDepth);
+		this.stove = lightStove();
+		this.conveyor = new Conveyor(newDecompiler(), this.stove,
+				this.stove == this.sharedStove ? this.sharedBurners : this.stove.getBurners(),
+				Kitchen.pipelineQueueDepth, Kitchen.decompileBatchSize);
+		if (this.receipt != null)
+			this.receipt.start("decompile");
+		this.conveyor.progress = this.timer.decompile;
+		this.timer.decompile.start(0);
+		this.conveyor.start();
+		try {
+			extract();
+		} finally {
+			log.info("Waiting for the decompilation of "
+					+ (this.conveyor.queuedEntries.get() - this.conveyor.doneEntries.get()) + " queued classes");
+			this.conveyor.finish();
+			log.info("Decompiled " + this.conveyor.doneEntries.get() + " classes in "
+					+ this.conveyor.decompiler.passes.sum() + " CFR passes");
+			this.decompiledClasses.addAndGet(this.conveyor.doneEntries.get());
+			this.failedClasses.addAndGet(this.conveyor.failedEntries.get());
+			this.conveyor = null;
+			try {
+				decompileConflicts();
+			} finally {
+				this.timer.decompile.finish();
+				turnOffStove();
+			}
+			if (this.receipt != null)
+				this.receipt.stop("decompile");
+		}
+		if (this.freezer != null)
+			log.info(this.freezer.toString());
+
+		// Clean-up
+		this.classFiles.clear();
+	}
+
 	void decompile() throws Exception {
 		int totalEntries = this.classFiles.size();
 		if (totalEntries == 0)
 			return;
 
-		log.info("Decompiling " + this.classFiles.size() + " classes");
-		Cucumber decompiler = new Cucumber(this.classFiles, this.destinationPath);
-		AtomicInteger doneEntries = new AtomicInteger(0);
+		Cucumber decompiler = newDecompiler();
+		long startTime = System.nanoTime();
+		this.timer.decompile.start(totalEntries);
 
-		// Use separate thread for progress to avoid clogging the CPU with UI updates
-		Thread progressThread = new Thread(null, () -> {
-			for (;;) {
-				// Decompilation is considered from 50% to 100% overall progress
-				notifyProgress(50 + ((50 * doneEntries.get()) / totalEntries), "Decompiling classes");
-				try {
-					Thread.sleep(500);
-				} catch (InterruptedException e) {
-					return; // done
-				}
+		if (this.receipt != null)
+			this.receipt.start("decompile");
+		this.stove = lightStove();
+		log.info("Decompiling " + this.classFiles.size() + " classes using " + this.stove.getBurners()
+				+ " threads, " + Kitchen.decompileBatchSize + " classes per CFR pass");
+		try {
+			if (Kitchen.workerProcesses > 0) {
+				decompileInBrigade(decompiler);
+			} else {
+				List<List<String>> batches = this.scale.schedule(this.classFiles.paths(), Kitchen.decompileBatchSize,
+						this.stove.getBurners());
+				this.stove.cookAll(batches, batch -> {
+					this.failedClasses.addAndGet(decompiler.chopBatch(batch));
+					this.timer.decompile.done(batch.size());
+				});
 			}
-		}, "decompile-progress");
-		progressThread.start();
+			decompileConflicts();
+		} finally {
+			this.timer.decompile.finish();
+			turnOffStove();
+			if (this.receipt != null)
+				this.receipt.stop("decompile");
+		}
+		this.decompiledClasses.addAndGet(totalEntries);
 
-		this.classFiles.keySet().parallelStream().forEach(path -> {
-			doneEntries.incrementAndGet();
-			try {
-				decompiler.chop(path);
-			} catch (Exception e) {
-				log.log(Level.SEVERE, "Decompilation failed: " + path, e);
-			}
-		});
-		progressThread.interrupt();
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		log.info(String.format("Decompiled %d classes in %.1f s (%.1f classes/s), %d failed", totalEntries, seconds,
+				totalEntries / Math.max(seconds, 0.001), this.failedClasses.get()));
+		if (this.references != null)
+			log.info("Referenced classes: " + this.references);
+		if (this.freezer != null)
+			log.info(this.freezer.toString());
 
 		// Clean-up
 		this.classFiles.clear();
 	}
 
-	void handleZipEntry(String parentName, InputStream stream, ZipEntry entry) throws Exception {
+	/**
+	 * Decompiles the classes in Kitchen.workerProcesses child JVMs (see Brigade),
+	 * each with its share of Kitchen.decompileThreads
+	 */
+	void decompileInBrigade(Cucumber decompiler) throws InterruptedException {
+		int threads = Math.max(1, Kitchen.decompileThreads / Kitchen.workerProcesses);
+		log.info("Decompiling in " + Kitchen.workerProcesses + " processes of " + threads + " threads each");
+		List<List<String>> batches = this.scale.schedule(this.classFiles.paths(), Kitchen.decompileBatchSize,
+				Kitchen.workerProcesses * threads);
+		try (Brigade brigade = new Brigade(Kitchen.workerProcesses, threads, decompiler)) {
+			this.failedClasses.addAndGet(brigade.cookAll(batches));
+		}
+	}
+
+	/**
+	 * Decompiles the classes set aside by the sieve (same path as another class,
+	 * other bytes), each into the conflicts/ directory of the archive it came from
+	 */
+	void decompileConflicts() throws InterruptedException {
+		if (this.sieve == null)
+			return;
+
+		for (Map.Entry<String, HeapPantry> variant : this.sieve.getConflicts().entrySet()) {
+			HeapPantry classes = variant.getValue();
+			log.info("Decompiling " + classes.size() + " conflicting classes of " + variant.getKey());
+			Cucumber decompiler = newDecompiler(classes, Paths
+					.get(this.destinationPath, Sieve.CONFLICTS_DIRECTORY, variant.getKey()).toString());
+			this.timer.decompile.addTotal(classes.size());
+			List<List<String>> batches = this.scale.schedule(classes.paths(), Kitchen.decompileBatchSize,
+					this.stove.getBurners());
+			this.stove.cookAll(batches, batch -> {
+				this.failedClasses.addAndGet(decompiler.chopBatch(batch));
+				this.timer.decompile.done(batch.size());
+			});
+			this.decompiledClasses.addAndGet(classes.size());
+		}
+	}
+
+	Stove lightStove() {
+		return this.sharedStove != null ? this.sharedStove : new Stove(Kitchen.decompileThreads);
+	}
+
+	void turnOffStove() throws InterruptedException {
+		if (this.stove != this.sharedStove)
+			this.stove.close();
+		this.stove = null;
+	}
+
+	Cucumber newDecompiler() {
+		return newDecompiler(this.classFiles, this.destinationPath);
+	}
+
+	Cucumber newDecompiler(Pantry classes, String destinationPath) {
+		Cucumber decompiler = new Cucumber(classes, this.references, destinationPath);
+		decompiler.freezer = this.freezer;
+		decompiler.receipt = this.receipt;
+		decompiler.progress = this.timer.decompile;
+		decompiler.waiter = this.waiter;
+		decompiler.thermostat = this.thermostat;
+		decompiler.eggTimer = this.eggTimer;
+		return decompiler;
+	}
+
+	/**
+	 * Splits classes into batches of the same package, never separating inner
+	 * classes from their outer class
+	 */
+	static List<List<String>> batchByPackage(Collection<String> paths, int batchSize) {
+		return batchByPackage(paths, batchSize, path -> 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Same, also cutting batches once they weigh maxWeight (see Scale)
+	 */
+	static List<List<String>> batchByPackage(Collection<String> paths, int batchSize, ToLongFunction<String> weights,
+			long maxWeight) {
+		Map<String, List<String>> packages = new TreeMap<>();
+		for (String path : paths) {
+			packages.computeIfAbsent(path.substring(0, path.lastIndexOf('/') + 1), p -> new ArrayList<>()).add(path);
+		}
+
+		List<List<String>> batches = new ArrayList<>();
+		for (List<String> classes : packages.values()) {
+			Collections.sort(classes);
+			List<String> batch = new ArrayList<>();
+			long batchWeight = 0;
+			String lastOuter = null;
+			for (String path : classes) {
+				String outer = Cucumber.outerClassPath(path);
+				if ((batch.size() >= batchSize || batchWeight >= maxWeight) && !outer.equals(lastOuter)) {
+					batches.add(batch);
+					batch = new ArrayList<>();
+					batchWeight = 0;
+				}
+				batch.add(path);
+				batchWeight += weights.applyAsLong(path);
+				lastOuter = outer;
+			}
+			batches.add(batch);
+		}
+		return batches;
+	}
+
+	/**
+	 * @param archiveChain names of the nested archives (from the root archive
+	 *                     down) containing the entry, empty for root entries
+	 * @param ordinal      position of the entry inside its archive
+	 */
+	void handleZipEntry(String parentName, List<String> archiveChain, int ordinal, InputStream stream, ZipEntry entry)
+			throws Exception {
 		String fullEntryName = parentName + " > " + entry.getName();
+		this.timer.extract.item(entry.getName());
+		if (this.thermostat != null)
+			this.thermostat.cool(this::decompilationBehind);
 		if (log.isLoggable(Level.FINE))
 			log.fine("Processing entry " + fullEntryName);
 
-		Matcher classExtMatcher;
+		String classPath;
 		String className = "";
 		boolean mustDecompile = false;
 		boolean mustExtract = false;
 
-		// (1) Archives (zip/jar) => recurse
-		if (Kitchen.ARCHIVE_EXTENSION_REGEX.matcher(entry.getName()).matches()) {
-			log.info("Extracting archive " + fullEntryName);
-			ZipInputStream zipStream = new ZipInputStream(stream);
-			openZipStreams.add(zipStream); // keep a reference of this instance to scare GC away
-
-			ZipEntry childEntry = null;
-			while ((childEntry = zipStream.getNextEntry()) != null) {
-				if (childEntry.getName().endsWith("/"))
-					continue; // ignore directories
-
-				handleZipEntry(entry.getName(), zipStream, childEntry);
-				zipStream.closeEntry();
+		// (1) Archives (zip/jar) => recurse (on another thread, if possible)
+		if (Colander.isArchive(entry.getName())) {
+			List<String> childChain = new ArrayList<>(archiveChain);
+			childChain.add(entry.getName());
+			childChain = Collections.unmodifiableList(childChain);
+
+			if (!forkArchive(fullEntryName, childChain, stream, entry)) {
+				ZipInputStream zipStream = new ZipInputStream(stream);
+				openZipStreams.add(zipStream); // keep a reference of this instance to scare GC away
+				walkArchive(fullEntryName, childChain, zipStream);
+				// intentionally do NOT close ZipInputStream to avoid closing upstream
 			}
-			// intentionally do NOT close ZipInputStream to avoid closing upstream
 		}
 
 		// (2) Classes to decompile => extract to heap (byte array)
-		else if ((classExtMatcher = Kitchen.CLASS_EXTENSION_REGEX.matcher(entry.getName())).matches()) {
-			className = classExtMatcher.replaceFirst("$1").replace('/', '.');
-			final String className2 = className;
-			mustDecompile = Kitchen.decompileIncludePatterns.stream().anyMatch(p -> p.matcher(className2).matches())
-					&& Kitchen.decompileExcludePatterns.stream().noneMatch(p -> p.matcher(className2).matches());
-			if (mustDecompile) {
-				extractClass(entry.getName(), stream);
+		else if ((classPath = Colander.classPathOf(entry.getName())) != null) {
+			className = classPath.replace('/', '.');
+			mustDecompile = this.decompileColander.accepts(className);
+			this.currentArchiveChain.set(archiveChain);
+			if (mustDecompile && this.leftovers != null) {
+				// Incremental bake => the bytes are needed anyway to know if the class changed
+				byte[] contents = readClassBytes(stream, entry.getSize());
+				if (this.receipt != null)
+					this.receipt.inflated(contents.length);
+				this.timer.extract.bytes(contents.length);
+				long crc = entry.getCrc() != -1 ? entry.getCrc() : Leftovers.crc32(contents);
+				for (Map.Entry<String, byte[]> stale : this.leftovers
+						.take(archiveChain, entry.getName(), crc, javaSourcePath(entry.getName()), contents).entrySet()) {
+					storeClass(stale.getKey(), stale.getValue());
+				}
+			} else if (mustDecompile) {
+				extractClass(entry.getName(), stream, entry.getSize());
 			}
+			this.currentArchiveChain.remove();
+
+			// Remember where it is, in case CFR needs it as a reference (or again, once
+			// the pipelined bake dropped it)
+			if (this.references != null)
+				this.references.note(archiveChain, ordinal, entry.getName());
 		}
 
 		// (3) Files to extract => directly to target directory
 		else {
-			mustExtract = Kitchen.extractIncludePatterns.stream().anyMatch(p -> p.matcher(entry.getName()).matches())
-					&& Kitchen.extractExcludePatterns.stream().noneMatch(p -> p.matcher(entry.getName()).matches());
-			if (mustExtract) {
+			mustExtract = this.extractColander.accepts(entry.getName());
+			// (CRC is only known upfront for the root archive and nested ones without
+			// data descriptors)
+			boolean fresh = mustExtract && this.leftovers != null
+					&& this.leftovers.isFresh(archiveChain, entry.getName(), entry.getCrc());
+			if (mustExtract && !fresh) {
 				extractFile(entry.getName(), stream);
 			}
+			if (this.leftovers != null)
+				this.leftovers.record(archiveChain, entry.getName(), entry.getCrc(), mustExtract ? entry.getName() : "",
+						fresh);
 		}
 
 		addCsvEntry(entry.getName(), parentName, mustExtract, mustDecompile);
 	}
 
+	/**
+	 * @return whether classes are waiting to be decompiled (pipelined bake), i.e.
+	 *         heap will be freed if extraction waits for a bit
+	 */
+	boolean decompilationBehind() {
+		Conveyor conveyor = this.conveyor;
+		return conveyor != null && conveyor.isBehind();
+	}
+
+	void walkArchive(String fullEntryName, List<String> archiveChain, ZipInputStream zipStream) throws Exception {
+		log.info("Extracting archive " + fullEntryName);
+		String archiveName = archiveChain.get(archiveChain.size() - 1);
+
+		ZipEntry childEntry = null;
+		int childOrdinal = -1;
+		while ((childEntry = zipStream.getNextEntry()) != null) {
+			childOrdinal++;
+			if (childEntry.getName().endsWith("/"))
+				continue; // ignore directories
+
+			handleZipEntry(archiveName, archiveChain, childOrdinal, zipStream, childEntry);
+			zipStream.closeEntry();
+		}
+		archiveWalked(archiveChain);
+	}
+
+	/**
+	 * Called once all the entries of an archive were handled (nested archives
+	 * aside)
+	 * 
+	 * @param archiveChain see handleZipEntry (empty for the root archive)
+	 */
+	void archiveWalked(List<String> archiveChain) throws IOException, InterruptedException {
+		// Incremental bake => the classes set aside are known to be fresh or not by now
+		if (this.leftovers != null) {
+			this.currentArchiveChain.set(archiveChain);
+			try {
+				for (Leftovers.Tray tray : this.leftovers.settle(archiveChain)) {
+					for (Map.Entry<String, byte[]> set : tray.classes.entrySet()) {
+						if (tray.spoiled)
+							storeClass(set.getKey(), set.getValue());
+						else if (this.sieve != null)
+							this.sieve.sift(archiveChain, set.getKey(), set.getValue()); // (so later copies are compared to it)
+					}
+				}
+			} finally {
+				this.currentArchiveChain.remove();
+			}
+		}
+
+		// Pipelined bake => the archive's classes still waiting for inner/outer classes
+		// will not get any
+		if (this.conveyor != null)
+			this.conveyor.serve(archiveChain);
+	}
+
+	/**
+	 * Hands a nested archive over to the extraction pool. Archives in the root one
+	 * are read again from the (thread-safe) root ZipFile; deeper ones are read into
+	 * memory first, as long as they fit in what is left of the spool budget.
+	 * 
+	 * @return false if the caller must walk the archive itself
+	 */
+	boolean forkArchive(String fullEntryName, List<String> archiveChain, InputStream stream, ZipEntry entry)
+			throws IOException {
+		if (this.extractors == null)
+			return false;
+		// (root entries read from a CuttingBoard are already spread across the pool)
+		if (archiveChain.size() == 1 && this.rootZipFile == null)
+			return false;
+
+		Runnable walk;
+		if (archiveChain.size() == 1) {
+			ZipFile zipFile = this.rootZipFile;
+			walk = () -> {
+				try (InputStream rootStream = zipFile.getInputStream(entry)) {
+					walkArchive(fullEntryName, archiveChain, new ZipInputStream(rootStream));
+				} catch (Exception e) {
+					failExtraction(fullEntryName, e);
+				}
+			};
+		} else {
+			// Size is unknown for entries with a data descriptor (or the heap is short) =>
+			// walk it inline
+			if (this.thermostat != null && this.thermostat.isWarm())
+				return false;
+			int kilobytes = (int) Math.min(Integer.MAX_VALUE, entry.getSize() / 1024 + 1);
+			if (entry.getSize() < 0 || !this.spoolBudget.tryAcquire(kilobytes))
+				return false;
+
+			byte[] spooled;
+			try {
+				spooled = readClassBytes(stream, entry.getSize());
+			} catch (IOException e) {
+				this.spoolBudget.release(kilobytes);
+				throw e;
+			}
+			walk = () -> {
+				try {
+					walkArchive(fullEntryName, archiveChain, new ZipInputStream(new ByteArrayInputStream(spooled)));
+				} catch (Exception e) {
+					failExtraction(fullEntryName, e);
+				} finally {
+					this.spoolBudget.release(kilobytes);
+				}
+			};
+		}
+
+		this.pendingArchives.add(this.extractors.submit(walk));
+		return true;
+	}
+
+	void failExtraction(String fullEntryName, Exception e) {
+		log.log(Level.SEVERE, "Extraction failed: " + fullEntryName, e);
+		this.extractFailure.compareAndSet(null, e);
+	}
+
+	/**
+	 * Waits for all the archives handed over to the extraction pool (including the
+	 * ones they hand over in turn)
+	 */
+	void awaitArchives() throws Exception {
+		ForkJoinTask<?> task;
+		while ((task = this.pendingArchives.poll()) != null) {
+			task.join();
+		}
+
+		Exception failure = this.extractFailure.getAndSet(null);
+		if (failure != null)
+			throw failure;
+	}
+
 	void extractFile(String relativePath, InputStream inStream) throws IOException {
+		long startTime = System.nanoTime();
+		long startCpuTime = this.receipt != null ? this.receipt.writeStarted() : 0;
+		long written = 0;
+
 		Path destFilePath = Paths.get(this.destinationPath, relativePath);
+		if (this.waiter != null) {
+			// Write-behind => read it and hand it over to the output stage
+			try {
+				written = this.waiter.send(destFilePath, inStream);
+			} catch (InterruptedIOException e) {
+				throw e;
+			} catch (IOException e) {
+				log.log(Level.SEVERE, "Failed to save file: " + relativePath, e);
+				return;
+			}
+			if (this.receipt != null)
+				this.receipt.inflated(written);
+			this.timer.extract.bytes(written);
+			return;
+		}
+
 		try {
 			Files.createDirectories(destFilePath.getParent());
 		} catch (Exception e) {
@@ -211,54 +799,193 @@ public class Potato {
 		// entry file sizes
 		// So this is the 2nd best alternative in terms of performance:
 		// https://www.happycoders.eu/java/filechannel-bytebuffer-memory-mapped-file-locks/
-		try (FileChannel channel = FileChannel.open(destFilePath, StandardOpenOption.CREATE,
-				StandardOpenOption.WRITE)) {
-			channel.transferFrom(Channels.newChannel(inStream), 0, Long.MAX_VALUE);
-		}
-		catch (Exception e) {
+		// (bulk copy through a pooled buffer instead of transferFrom, which allocates
+		// a new one for every call)
+		byte[] buffer = this.buffers.borrow();
+		try {
+			synchronized (this.fileLocks[(relativePath.hashCode() & 0x7fffffff) % this.fileLocks.length]) {
+				try (FileChannel channel = FileChannel.open(destFilePath, StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					int read;
+					while ((read = inStream.read(buffer)) != -1) {
+						ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+						while (chunk.hasRemaining())
+							channel.write(chunk);
+						written += read;
+					}
+				}
+			}
+		} catch (Exception e) {
 			// File is locked or something...
 			log.log(Level.SEVERE, "Failed to save file: " + relativePath, e);
 			return;
+		} finally {
+			this.buffers.giveBack(buffer);
+		}
+
+		// (Write time includes inflating the entry, which happens as it is copied)
+		if (this.receipt != null) {
+			this.receipt.inflated(written);
+			this.receipt.written(written, startTime, startCpuTime);
 		}
+		this.timer.extract.bytes(written);
 
 		if (log.isLoggable(Level.FINE))
 			log.fine("File " + relativePath + " extracted to target directory.");
 	}
 
-	void extractClass(String relativePath, InputStream inStream) throws IOException {
-		// ZipInputStream does not provide entry file sizes...
-		// Use a buffer size of 8KB as this seems to be a good "min. heap space per
-		// file" compromise and is close to the average XML/PROMO/other text files we
-		// usually extract from GK JARs
-		ByteArrayOutputStream outStream = new ByteArrayOutputStream(8192);
-		int byteVal = 0;
-		while ((byteVal = inStream.read()) != -1) {
-			outStream.write((byte) byteVal);
+	void extractClass(String relativePath, InputStream inStream, long size) throws IOException {
+		byte[] contents = readClassBytes(inStream, size);
+		if (this.receipt != null)
+			this.receipt.inflated(contents.length);
+		this.timer.extract.bytes(contents.length);
+		storeClass(relativePath, contents);
+	}
+
+	void storeClass(String relativePath, byte[] contents) throws IOException {
+		// Same bytes seen before => already decompiled; same path with other bytes =>
+		// set aside (see Sieve)
+		List<String> archiveChain = this.currentArchiveChain.get();
+		if (this.sieve != null && archiveChain != null) {
+			Sieve.Verdict verdict = this.sieve.sift(archiveChain, relativePath, contents);
+			if (verdict != Sieve.Verdict.NEW) {
+				if (log.isLoggable(Level.FINE))
+					log.fine("Class " + relativePath + " in " + this.sieve.archiveOf(archiveChain)
+							+ (verdict == Sieve.Verdict.DUPLICATE ? " seen before." : " conflicts with another copy."));
+				return;
+			}
 		}
 
-		this.classFiles.put(relativePath, outStream.toByteArray());
+		this.classFiles.put(relativePath, contents);
+		if (this.conveyor == null)
+			this.scale.weigh(relativePath, contents); // (a pipelined bake takes classes as they come)
+
+		// Pipelined bake => hand it over to the decompiler right away (waits if the
+		// belt is full)
+		if (this.conveyor != null) {
+			try {
+				this.conveyor.put(archiveChain != null ? archiveChain : Collections.emptyList(), relativePath);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while queueing class " + relativePath, e);
+			}
+		}
 
 		if (log.isLoggable(Level.FINE))
 			log.fine("Class " + relativePath + " extracted to memory.");
 	}
 
+	byte[] readClassBytes(InputStream inStream, long size) throws IOException {
+		// The root archive (central directory) and some nested ones (local header)
+		// tell us the exact size => read straight into the final array
+		if (size >= 0 && size < Integer.MAX_VALUE) {
+			byte[] contents = new byte[(int) size];
+			int length = 0;
+			int read;
+			while (length < contents.length && (read = inStream.read(contents, length, contents.length - length)) != -1)
+				length += read;
+			if (length == contents.length && inStream.read() == -1)
+				return contents;
+
+			// Size hint was a lie - should never happen with sane archives
+			throw new IOException("Entry size mismatch: " + length + " bytes read, " + size + " expected");
+		}
+
+		// Size unknown (streamed entry with a data descriptor) => read into a pooled
+		// buffer, growing it if needed, and copy the result exactly once
+		byte[] buffer = this.buffers.borrow();
+		try {
+			int length = 0;
+			int read;
+			while ((read = inStream.read(buffer, length, buffer.length - length)) != -1) {
+				length += read;
+				if (length == buffer.length)
+					buffer = this.buffers.grow(buffer);
+			}
+			return Arrays.copyOf(buffer, length);
+		} finally {
+			this.buffers.giveBack(buffer);
+		}
+	}
+
+	/**
+	 * "WEB-INF/classes/a/b/Outer$Inner.class" => "a/b/Outer.java"
+	 */
+	static String javaSourcePath(String classPath) {
+		for (String prefix : ShoppingList.CLASS_FOLDER_PREFIXES) {
+			if (classPath.startsWith(prefix))
+				return javaSourcePath(classPath.substring(prefix.length()));
+		}
+		return Cucumber.outerClassPath(classPath) + ".java";
+	}
+
+	/**
+	 * "a/b/archive.war" => "destination/archive-sources.zip" (see
+	 * Kitchen.outputArchive)
+	 */
+	Path outputArchivePath() {
+		String rootLocalName = Paths.get(this.rootArchivePath).getFileName().toString();
+		int dot = rootLocalName.lastIndexOf('.');
+		String baseName = dot > 0 ? rootLocalName.substring(0, dot) : rootLocalName;
+		return Paths.get(this.destinationPath, baseName + "-sources." + Kitchen.outputArchive);
+	}
+
+	/**
+	 * Writes the performance report next to the CSV (see Receipt)
+	 */
+	void writeReceipt() {
+		String rootLocalName = Paths.get(this.rootArchivePath).getFileName().toString();
+		Path receiptPath = Paths.get(destinationPath, "receipt_" + rootLocalName + ".json");
+		try {
+			this.receipt.write(receiptPath, this.handledEntries.get(), this.decompiledClasses.get(),
+					this.failedClasses.get());
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Failed to write the bake report: " + receiptPath, e);
+		}
+	}
+
+	/**
+	 * Writes the report of same-path classes with different bytes next to the CSV
+	 * (see Sieve)
+	 */
+	void writeConflicts() {
+		String rootLocalName = Paths.get(this.rootArchivePath).getFileName().toString();
+		Path conflictsPath = Paths.get(destinationPath, "conflicts_" + rootLocalName + ".csv");
+		try {
+			this.sieve.writeReport(conflictsPath);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Failed to write the conflicts report: " + conflictsPath, e);
+		}
+	}
+
+	/**
+	 * Writes the list of classes that went over their time budget next to the CSV
+	 * (see EggTimer)
+	 */
+	void writeTimeouts() {
+		String rootLocalName = Paths.get(this.rootArchivePath).getFileName().toString();
+		Path timeoutsPath = Paths.get(destinationPath, "timeouts_" + rootLocalName + ".csv");
+		try {
+			this.eggTimer.writeReport(timeoutsPath);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Failed to write the list of timed out classes: " + timeoutsPath, e);
+		}
+	}
+
 	void createCsvFile() throws IOException {
 		String rootLocalName = Paths.get(this.rootArchivePath).getFileName().toString();
 
 		// Create a CSV file with the complete file list
-		this.csvFile = FileChannel.open(Paths.get(destinationPath, "file_list_" + rootLocalName + ".csv"),
-				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-		this.csvFile.write(
-				ByteBuffer.wrap("Path,Archive (parent),Extracted?,Decompiled?\r\n".getBytes(StandardCharsets.UTF_8)));
+		String fileName = "file_list_" + rootLocalName + (Kitchen.compressFileList ? ".csv.gz" : ".csv");
+		this.csvFile = new Inventory(Paths.get(destinationPath, fileName), Kitchen.compressFileList);
 	}
 
 	void addCsvEntry(String relativePath, String parentName, boolean extracted, boolean decompiled) throws IOException {
-		// Wrap every column in double-quotes, also escaping double-quotes
-		if (this.csvFile != null && this.csvFile.isOpen()) {
-			String line = Arrays.asList(relativePath, parentName, extracted ? "X" : "", decompiled ? "X" : "").stream()
-					.map(raw -> "\"" + raw.replaceAll("\"", "\\\"") + "\"").collect(Collectors.joining(",")) + "\r\n";
-			this.csvFile.write(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
-		}
+		this.handledEntries.incrementAndGet();
+
+		// Written (quoted and escaped) by the inventory's own thread
+		if (this.csvFile != null)
+			this.csvFile.add(relativePath, parentName, extracted, decompiled);
 	}
 
 	void startNewLogFile() throws IOException {
@@ -276,15 +1003,15 @@ public class Potato {
 		Logger.getLogger("ninja.abap").addHandler(newHandler);
 	}
 
-	private void notifyProgress(int percent, String text) {
-		this.progressListeners.forEach(listener -> listener.accept(percent, text));
-	}
-
 	void cleanup() throws IOException {
-		if (this.csvFile != null && this.csvFile.isOpen())
+		if (this.csvFile != null) {
 			this.csvFile.close();
+			this.csvFile = null;
+		}
 
-		this.progressListeners.clear();
+		this.classFiles.close();
+		if (this.references != null)
+			this.references.close();
 
 		System.gc();
 	}
@@ -0,0 +1,428 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Performance report of a bake, written as JSON next to the file list CSV
+ *
+ * Phases (extract, decompile) are timed as wall and process CPU time from
+ * start to stop; they overlap in a pipelined bake, and the CPU time includes
+ * any other bake running in the same JVM. Writing is spread over the worker
+ * threads, so it is reported as the time those threads spent on it (summed).
+ *
+ * Per-class decompile latency is the time between a class's source coming out
+ * of CFR and the previous one of the same pass (or the start of the pass), so
+ * classes decompiled in a batch get their share of the pass rather than the
+ * whole of it.
+ *
+ * Peak heap is the most seen in use between the start of the bake and the
+ * report, right before each GC (like Thermostat, from GC notifications) and at
+ * phase starts and stops. The JVM-wide pool peaks are left alone, as other
+ * bakes in the same JVM would reset them under each other's feet.
+ */
+public class Receipt implements Closeable {
+	private static final Logger log = Logger.getLogger(Receipt.class.getName());
+
+	static final int LATENCY_BUCKETS = 16; // < 1 ms, 1-2 ms, 2-4 ms, ..., >= 16384 ms
+
+	static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	static final boolean threadCpuTime = threads.isCurrentThreadCpuTimeSupported();
+	static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	final String archiveName;
+	final long startNanos = System.nanoTime();
+	final long startCpuNanos = processCpuNanos();
+	final long startGcMillis = gcMillis();
+	final Instant startTime = Instant.now();
+
+	final Map<String, Phase> phases = new LinkedHashMap<>();
+
+	final LongAdder bytesInflated = new LongAdder();
+	final LongAdder bytesWritten = new LongAdder();
+	final LongAdder filesWritten = new LongAdder();
+	final LongAdder writeNanos = new LongAdder();
+	final LongAdder writeCpuNanos = new LongAdder();
+
+	final LongAdder classesTimed = new LongAdder();
+	final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+
+	// Slowest classes so far (fastest of them at the head)
+	final int slowestCount;
+	final PriorityQueue<Timing> slowest = new PriorityQueue<>();
+
+	// Peak heap usage of this bake (see class comment)
+	final LongAccumulator peakHeapBytes = new LongAccumulator(Math::max, 0);
+	final Set<String> heapPools = new HashSet<>();
+	final List<NotificationEmitter> emitters = new ArrayList<>();
+	final NotificationListener gcListener = this::gcDone;
+
+	public Receipt(String archiveName, int slowestCount) {
+		this.archiveName = archiveName;
+		this.slowestCount = slowestCount;
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				this.heapPools.add(pool.getName());
+		}
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc instanceof NotificationEmitter) {
+				((NotificationEmitter) gc).addNotificationListener(this.gcListener, null, null);
+				this.emitters.add((NotificationEmitter) gc);
+			}
+		}
+		sampleHeap();
+	}
+
+	public synchronized void start(String phase) {
+		this.phases.put(phase, new Phase(System.nanoTime(), processCpuNanos()));
+		sampleHeap();
+	}
+
+	public synchronized void stop(String phase) {
+		sampleHeap();
+		Phase started = this.phases.get(phase);
+		if (started != null && started.wallNanos < 0) {
+			started.wallNanos = System.nanoTime() - started.startNanos;
+			started.cpuNanos = processCpuNanos() - started.startCpuNanos;
+		}
+	}
+
+	/**
+	 * Bytes read out of an archive (uncompressed)
+	 */
+	public void inflated(long bytes) {
+		this.bytesInflated.add(bytes);
+	}
+
+	/**
+	 * @return the current thread's CPU time, to be passed to written
+	 */
+	public long writeStarted() {
+		return threadCpuTime ? threads.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * A file was written
+	 *
+	 * @param startNanos    System.nanoTime when it started
+	 * @param startCpuNanos writeStarted when it started
+	 */
+	public void written(long bytes, long startNanos, long startCpuNanos) {
+		this.writeNanos.add(System.nanoTime() - startNanos);
+		if (threadCpuTime)
+			this.writeCpuNanos.add(threads.getCurrentThreadCpuTime() - startCpuNanos);
+		this.bytesWritten.add(bytes);
+		this.filesWritten.increment();
+	}
+
+	/**
+	 * A class was decompiled in the given time
+	 */
+	public void decompiled(String className, long nanos) {
+		long millis = nanos / 1_000_000;
+		int bucket = millis < 1 ? 0 : Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+		this.latencyBuckets.incrementAndGet(bucket);
+		this.classesTimed.increment();
+
+		if (this.slowestCount <= 0)
+			return;
+		synchronized (this.slowest) {
+			if (this.slowest.size() < this.slowestCount) {
+				this.slowest.add(new Timing(className, nanos));
+			} else if (this.slowest.peek().nanos < nanos) {
+				this.slowest.poll();
+				this.slowest.add(new Timing(className, nanos));
+			}
+		}
+	}
+
+	/**
+	 * Writes the report (as of now)
+	 */
+	public void write(Path file, int entries, int decompiledClasses, int failedClasses) throws IOException {
+		long wallNanos = System.nanoTime() - this.startNanos;
+		double seconds = Math.max(wallNanos / 1e9, 0.001);
+
+		Json json = new Json();
+		json.open();
+		json.field("archive", this.archiveName);
+		json.field("started", this.startTime.toString());
+		json.field("wallMs", millis(wallNanos));
+		json.field("cpuMs", millis(processCpuNanos() - this.startCpuNanos));
+
+		json.name("phases").open();
+		synchronized (this) {
+			for (Map.Entry<String, Phase> phase : this.phases.entrySet()) {
+				json.name(phase.getKey()).open();
+				json.field("wallMs", millis(phase.getValue().wallNanos));
+				json.field("cpuMs", millis(phase.getValue().cpuNanos));
+				json.close();
+			}
+		}
+		json.name("write").open();
+		json.field("wallMs", millis(this.writeNanos.sum()));
+		json.field("cpuMs", millis(this.writeCpuNanos.sum()));
+		json.field("files", this.filesWritten.sum());
+		json.close();
+		json.close();
+
+		json.field("bytesInflated", this.bytesInflated.sum());
+		json.field("bytesWritten", this.bytesWritten.sum());
+		json.field("entries", entries);
+		json.field("entriesPerSecond", Math.round(entries / seconds));
+		json.field("decompiledClasses", decompiledClasses);
+		json.field("failedClasses", failedClasses);
+
+		json.name("decompileLatencyMs").open();
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			long count = this.latencyBuckets.get(i);
+			if (count == 0)
+				continue;
+			String bucket = i == 0 ? "<1" : i == LATENCY_BUCKETS - 1 ? ">=" + (1 << (i - 1)) : (1 << (i - 1)) + "-" + (1 << i);
+			json.field(bucket, count);
+		}
+		json.close();
+
+		json.name("slowestClasses").openArray();
+		for (Timing timing : slowest()) {
+			json.open();
+			json.field("class", timing.className);
+			json.field("ms", millis(timing.nanos));
+			json.close();
+		}
+		json.closeArray();
+
+		sampleHeap();
+		json.field("peakHeapBytes", this.peakHeapBytes.get());
+		json.field("maxHeapBytes", Runtime.getRuntime().maxMemory());
+		json.field("gcMs", gcMillis() - this.startGcMillis);
+		json.close();
+
+		Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Stops following GCs (the report can still be written)
+	 */
+	@Override
+	public void close() {
+		for (NotificationEmitter emitter : this.emitters) {
+			try {
+				emitter.removeNotificationListener(this.gcListener);
+			} catch (Exception e) {
+				log.log(Level.FINE, "Could not remove GC listener", e);
+			}
+		}
+		this.emitters.clear();
+	}
+
+	void sampleHeap() {
+		this.peakHeapBytes.accumulate(memory.getHeapMemoryUsage().getUsed());
+	}
+
+	void gcDone(Notification notification, Object handback) {
+		if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+			return;
+		try {
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+					.from((CompositeData) notification.getUserData());
+			long bytes = 0;
+			for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+				if (this.heapPools.contains(pool.getKey()))
+					bytes += pool.getValue().getUsed();
+			}
+			this.peakHeapBytes.accumulate(bytes);
+		} catch (RuntimeException e) {
+			log.log(Level.FINE, "Unexpected GC notification", e);
+		}
+	}
+
+	/**
+	 * @return the slowest classes, slowest first
+	 */
+	List<Timing> slowest() {
+		List<Timing> slowest;
+		synchronized (this.slowest) {
+			slowest = new ArrayList<>(this.slowest);
+		}
+		slowest.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+		return slowest;
+	}
+
+	static long millis(long nanos) {
+		return nanos / 1_000_000;
+	}
+
+	static long processCpuNanos() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		return -1;
+	}
+
+	static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	static class Phase {
+		final long startNanos;
+		final long startCpuNanos;
+		long wallNanos = -1;
+		long cpuNanos = -1;
+
+		Phase(long startNanos, long startCpuNanos) {
+			this.startNanos = startNanos;
+			this.startCpuNanos = startCpuNanos;
+		}
+	}
+
+	static class Timing implements Comparable<Timing> {
+		final String className;
+		final long nanos;
+
+		Timing(String className, long nanos) {
+			this.className = className;
+			this.nanos = nanos;
+		}
+
+		@Override
+		public int compareTo(Timing other) {
+			return Long.compare(this.nanos, other.nanos);
+		}
+	}
+
+	/**
+	 * Just enough of a JSON writer for the report (indented, for humans to read it
+	 * as well)
+	 */
+	static class Json {
+		final StringBuilder out = new StringBuilder(4096);
+		int depth = 0;
+		boolean first = true;
+		boolean named = false;
+
+		Json name(String name) {
+			separate();
+			string(name);
+			this.out.append(": ");
+			this.named = true;
+			return this;
+		}
+
+		void field(String name, String value) {
+			name(name);
+			string(value);
+			this.named = false;
+		}
+
+		void field(String name, long value) {
+			name(name);
+			this.out.append(value);
+			this.named = false;
+		}
+
+		void open() {
+			separate();
+			this.out.append('{');
+			this.depth++;
+			this.first = true;
+			this.named = false;
+		}
+
+		void close() {
+			end('}');
+		}
+
+		void openArray() {
+			separate();
+			this.out.append('[');
+			this.depth++;
+			this.first = true;
+			this.named = false;
+		}
+
+		void closeArray() {
+			end(']');
+		}
+
+		void end(char bracket) {
+			this.depth--;
+			if (!this.first)
+				newLine();
+			this.out.append(bracket);
+			this.first = false;
+		}
+
+		void separate() {
+			if (this.named)
+				return;
+			if (!this.first)
+				this.out.append(',');
+			if (this.depth > 0)
+				newLine();
+			this.first = false;
+		}
+
+		void newLine() {
+			this.out.append(System.lineSeparator());
+			for (int i = 0; i < this.depth; i++)
+				this.out.append("  ");
+		}
+
+		void string(String value) {
+			this.out.append('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"' || c == '\\')
+					this.out.append('\\').append(c);
+				else if (c < 0x20)
+					this.out.append(String.format("\\u%04x", (int) c));
+				else
+					this.out.append(c);
+			}
+			this.out.append('"');
+		}
+
+		@Override
+		public String toString() {
+			return this.out.toString();
+		}
+	}
+
+}
@@ -0,0 +1,23 @@
+package ninja.abap.gkdecompiler;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Threads to carry files out to the filesystem one at a time, for output stages
+ * that would rather not have a fixed number of I/O threads (see Dumbwaiter)
+ *
+ * Only Java 21 and later have threads cheap enough to start one per file
+ * (virtual threads) - the jar holds another version of this class for them
+ * (src/main/java21, in META-INF/versions/21).
+ */
+public class Runners {
+
+	/**
+	 * @return an executor starting a virtual thread per task, or null if this JVM
+	 *         has no virtual threads
+	 */
+	public static ExecutorService hire(String name) {
+		return null;
+	}
+
+}
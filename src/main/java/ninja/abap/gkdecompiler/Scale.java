@@ -0,0 +1,164 @@
+package ninja.abap.gkdecompiler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Weighs classes as they are extracted - a rough estimate of how long CFR takes
+ * for them - so batches can be cut to similar weights and the heaviest ones
+ * decompiled first (longest processing time first). Otherwise a few huge
+ * classes that happen to come last keep one thread busy long after the others
+ * are done.
+ *
+ * The weight of a class is its size plus the bytecode of its methods, counted
+ * more than once for long methods (CFR's analysis of a method grows faster than
+ * its length), plus a fixed amount per method. Only the constant pool and the
+ * field/method tables are scanned, nothing is decoded.
+ */
+public class Scale {
+
+	// Weight of a method besides its code, and of classes that were not weighed
+	static final long METHOD_WEIGHT = 64;
+	static final long DEFAULT_WEIGHT = 4096;
+
+	// Batches per decompiler thread (at least, going by weight)
+	static final int BATCHES_PER_BURNER = 8;
+
+	static final byte[] CODE = "Code".getBytes(StandardCharsets.US_ASCII);
+
+	final Map<String, Long> weights = new ConcurrentHashMap<>(10000);
+
+	public void weigh(String path, byte[] contents) {
+		this.weights.put(path, weightOf(contents));
+	}
+
+	long weightOf(String path) {
+		Long weight = this.weights.get(path);
+		return weight != null ? weight : DEFAULT_WEIGHT;
+	}
+
+	/**
+	 * Splits classes into batches of the same package (see Potato.batchByPackage)
+	 * of up to batchSize classes and about 1/BATCHES_PER_BURNER of what each
+	 * decompiler thread has to do, heaviest batch first
+	 */
+	List<List<String>> schedule(Collection<String> paths, int batchSize, int burners) {
+		long totalWeight = 0;
+		for (String path : paths) {
+			totalWeight += weightOf(path);
+		}
+		long maxWeight = Math.max(1, totalWeight / ((long) Math.max(1, burners) * BATCHES_PER_BURNER));
+
+		List<List<String>> batches = Potato.batchByPackage(paths, batchSize, this::weightOf, maxWeight);
+		Map<List<String>, Long> batchWeights = new IdentityHashMap<>(batches.size());
+		for (List<String> batch : batches) {
+			batchWeights.put(batch, batch.stream().mapToLong(this::weightOf).sum());
+		}
+		List<List<String>> heaviestFirst = new ArrayList<>(batches);
+		heaviestFirst.sort(Comparator.comparing(batchWeights::get, Comparator.reverseOrder()));
+		return heaviestFirst;
+	}
+
+	/**
+	 * @return the weight of a class file (its size if it cannot be scanned)
+	 */
+	static long weightOf(byte[] contents) {
+		try {
+			// Constant pool - only the index of the "Code" attribute name is needed
+			int constantCount = u2(contents, 8); // (after magic, minor/major version)
+			int position = 10;
+			int codeIndex = -1;
+			for (int i = 1; i < constantCount; i++) {
+				int tag = contents[position++];
+				switch (tag) {
+				case 1: // Utf8
+					int length = u2(contents, position);
+					position += 2;
+					if (codeIndex < 0 && length == CODE.length && matches(contents, position, CODE))
+						codeIndex = i;
+					position += length;
+					break;
+				case 3: // Integer
+				case 4: // Float
+				case 9: // Fieldref
+				case 10: // Methodref
+				case 11: // InterfaceMethodref
+				case 12: // NameAndType
+				case 17: // Dynamic
+				case 18: // InvokeDynamic
+					position += 4;
+					break;
+				case 5: // Long
+				case 6: // Double
+					position += 8;
+					i++; // (takes two entries)
+					break;
+				case 7: // Class
+				case 8: // String
+				case 16: // MethodType
+				case 19: // Module
+				case 20: // Package
+					position += 2;
+					break;
+				case 15: // MethodHandle
+					position += 3;
+					break;
+				default:
+					return contents.length;
+				}
+			}
+
+			position += 6; // access flags, this, super
+			position += 2 + 2 * u2(contents, position); // interfaces
+
+			// Fields (skipped), then methods
+			long weight = contents.length;
+			for (int table = 0; table < 2; table++) {
+				int memberCount = u2(contents, position);
+				position += 2;
+				for (int member = 0; member < memberCount; member++) {
+					int attributeCount = u2(contents, position + 6); // after access flags, name, descriptor
+					position += 8;
+					for (int attribute = 0; attribute < attributeCount; attribute++) {
+						int nameIndex = u2(contents, position);
+						int length = u4(contents, position + 2);
+						if (table == 1 && nameIndex == codeIndex) {
+							int codeLength = u4(contents, position + 10); // after max. stack/locals
+							weight += codeLength + (long) codeLength * (32 - Integer.numberOfLeadingZeros(codeLength)) / 4;
+						}
+						position += 6 + length;
+					}
+					if (table == 1)
+						weight += METHOD_WEIGHT;
+				}
+			}
+			return weight;
+		} catch (RuntimeException e) {
+			// Not a (sane) class file - CFR will tell
+			return contents.length;
+		}
+	}
+
+	static int u2(byte[] contents, int offset) {
+		return (contents[offset] & 0xFF) << 8 | contents[offset + 1] & 0xFF;
+	}
+
+	static int u4(byte[] contents, int offset) {
+		return u2(contents, offset) << 16 | u2(contents, offset + 2);
+	}
+
+	static boolean matches(byte[] contents, int offset, byte[] expected) {
+		for (int i = 0; i < expected.length; i++) {
+			if (contents[offset + i] != expected[i])
+				return false;
+		}
+		return true;
+	}
+
+}
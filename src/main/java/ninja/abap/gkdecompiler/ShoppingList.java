@@ -0,0 +1,254 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Lazy class locator - remembers where each class of the archive can be found
+ * (archive chain and entry position), but not its bytes
+ * 
+ * This lets CFR look up referenced classes that are not decompiled (GK base
+ * libraries, third-party JARs...) for better type resolution. Classes are
+ * fetched from the root archive on demand and kept in a small LRU cache.
+ * 
+ * Nested archives can only be read sequentially, so the first class fetched
+ * from one copies it to a temporary file (once) - later ones are read from
+ * there directly.
+ */
+public class ShoppingList implements Closeable {
+
+	// Classes in these folders are looked up by CFR without the prefix
+	static final String[] CLASS_FOLDER_PREFIXES = { "WEB-INF/classes/", "BOOT-INF/classes/" };
+
+	// Max. number of spooled nested archives kept open at once
+	static final int MAX_OPEN_ARCHIVES = 32;
+
+	final String rootArchivePath;
+	final long cacheBudget;
+
+	final Map<String, Aisle> index = new ConcurrentHashMap<>(10000);
+	final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(256, 0.75f, true);
+	long cachedBytes = 0;
+	ZipFile rootArchive;
+
+	// Nested archives copied to temporary files, by archive chain
+	final Map<List<String>, Path> spools = new ConcurrentHashMap<>();
+	final Map<List<String>, Object> spoolLocks = new ConcurrentHashMap<>();
+	// Spooled archives open for reading, least recently used first (guarded by
+	// itself, also while reading from them)
+	final LinkedHashMap<List<String>, ZipFile> openArchives = new LinkedHashMap<>(16, 0.75f, true);
+	Path spoolDirectory;
+
+	final LongAdder cacheHits = new LongAdder();
+	final LongAdder fetches = new LongAdder();
+
+	public ShoppingList(String rootArchivePath, long cacheBudget) {
+		this.rootArchivePath = rootArchivePath;
+		this.cacheBudget = cacheBudget;
+	}
+
+	/**
+	 * Notes down where a class is
+	 * 
+	 * @param archiveChain names of the nested archives (from the root archive
+	 *                     down) containing the class, empty for root entries
+	 * @param ordinal      position of the class entry inside its archive (only
+	 *                     for information - entries are read by name)
+	 */
+	public void note(List<String> archiveChain, int ordinal, String entryName) {
+		Aisle aisle = new Aisle(archiveChain, ordinal, entryName);
+		this.index.putIfAbsent(entryName, aisle);
+		for (String prefix : CLASS_FOLDER_PREFIXES) {
+			if (entryName.startsWith(prefix))
+				this.index.putIfAbsent(entryName.substring(prefix.length()), aisle);
+		}
+	}
+
+	/**
+	 * @return the class file contents, or null if the class is not in the archive
+	 */
+	public byte[] fetch(String path) throws IOException {
+		Aisle aisle = this.index.get(path);
+		if (aisle == null)
+			return null;
+
+		synchronized (this.cache) {
+			byte[] contents = this.cache.get(path);
+			if (contents != null) {
+				this.cacheHits.increment();
+				return contents;
+			}
+		}
+
+		this.fetches.increment();
+		byte[] contents = read(aisle);
+
+		synchronized (this.cache) {
+			if (this.cache.put(path, contents) == null)
+				this.cachedBytes += contents.length;
+
+			// Evict least recently used classes
+			Iterator<byte[]> eldest = this.cache.values().iterator();
+			while (this.cachedBytes > this.cacheBudget && eldest.hasNext()) {
+				this.cachedBytes -= eldest.next().length;
+				eldest.remove();
+			}
+		}
+		return contents;
+	}
+
+	public int size() {
+		return this.index.size();
+	}
+
+	byte[] read(Aisle aisle) throws IOException {
+		if (aisle.archiveChain.isEmpty())
+			return readEntry(rootArchive(), aisle.entryName);
+
+		Path spool = spool(aisle.archiveChain);
+		synchronized (this.openArchives) {
+			ZipFile archive = this.openArchives.get(aisle.archiveChain);
+			if (archive == null) {
+				// Close least recently used archives
+				Iterator<ZipFile> eldest = this.openArchives.values().iterator();
+				while (this.openArchives.size() >= MAX_OPEN_ARCHIVES && eldest.hasNext()) {
+					eldest.next().close();
+					eldest.remove();
+				}
+				archive = new ZipFile(spool.toFile());
+				this.openArchives.put(aisle.archiveChain, archive);
+			}
+			return readEntry(archive, aisle.entryName);
+		}
+	}
+
+	/**
+	 * Copies a nested archive to a temporary file, unless done already (its
+	 * parent archive is spooled the same way)
+	 */
+	Path spool(List<String> archiveChain) throws IOException {
+		Path spool = this.spools.get(archiveChain);
+		if (spool != null)
+			return spool;
+
+		synchronized (this.spoolLocks.computeIfAbsent(archiveChain, chain -> new Object())) {
+			spool = this.spools.get(archiveChain);
+			if (spool != null)
+				return spool;
+
+			int depth = archiveChain.size();
+			String archiveName = archiveChain.get(depth - 1);
+			spool = Files.createTempFile(spoolDirectory(), "archive", ".zip");
+			if (depth == 1) {
+				copyEntry(rootArchive(), archiveName, spool);
+			} else {
+				// A separate handle, not to hold up classes read from the open one
+				Path parent = spool(new ArrayList<>(archiveChain.subList(0, depth - 1)));
+				try (ZipFile parentArchive = new ZipFile(parent.toFile())) {
+					copyEntry(parentArchive, archiveName, spool);
+				}
+			}
+			this.spools.put(archiveChain, spool);
+			return spool;
+		}
+	}
+
+	private byte[] readEntry(ZipFile archive, String entryName) throws IOException {
+		ZipEntry entry = archive.getEntry(entryName);
+		if (entry == null)
+			throw new IOException("Archive changed: " + entryName + " not found in " + this.rootArchivePath);
+		try (InputStream stream = archive.getInputStream(entry)) {
+			return readAll(stream);
+		}
+	}
+
+	private void copyEntry(ZipFile archive, String entryName, Path file) throws IOException {
+		ZipEntry entry = archive.getEntry(entryName);
+		if (entry == null)
+			throw new IOException("Archive changed: " + entryName + " not found in " + this.rootArchivePath);
+		try (InputStream stream = archive.getInputStream(entry)) {
+			Files.copy(stream, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static byte[] readAll(InputStream stream) throws IOException {
+		ByteArrayOutputStream outStream = new ByteArrayOutputStream(8192);
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = stream.read(buffer)) != -1) {
+			outStream.write(buffer, 0, read);
+		}
+		return outStream.toByteArray();
+	}
+
+	private synchronized Path spoolDirectory() throws IOException {
+		if (this.spoolDirectory == null)
+			this.spoolDirectory = Files.createTempDirectory("gk-decompiler-references");
+		return this.spoolDirectory;
+	}
+
+	private synchronized ZipFile rootArchive() throws IOException {
+		if (this.rootArchive == null)
+			this.rootArchive = new ZipFile(this.rootArchivePath);
+		return this.rootArchive;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.index.clear();
+		synchronized (this.cache) {
+			this.cache.clear();
+			this.cachedBytes = 0;
+		}
+		if (this.rootArchive != null)
+			this.rootArchive.close();
+		this.rootArchive = null;
+
+		synchronized (this.openArchives) {
+			for (ZipFile archive : this.openArchives.values()) {
+				archive.close();
+			}
+			this.openArchives.clear();
+		}
+		for (Path spool : this.spools.values()) {
+			Files.deleteIfExists(spool);
+		}
+		this.spools.clear();
+		if (this.spoolDirectory != null)
+			Files.deleteIfExists(this.spoolDirectory);
+		this.spoolDirectory = null;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d classes indexed, %d fetched from the archive (%d nested archives spooled), %d cache hits",
+				size(), this.fetches.sum(), this.spools.size(), this.cacheHits.sum());
+	}
+
+	static class Aisle {
+		final List<String> archiveChain; // shared by all entries of an archive
+		final int ordinal;
+		final String entryName;
+
+		Aisle(List<String> archiveChain, int ordinal, String entryName) {
+			this.archiveChain = archiveChain;
+			this.ordinal = ordinal;
+			this.entryName = entryName;
+		}
+	}
+
+}
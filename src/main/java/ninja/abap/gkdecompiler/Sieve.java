@@ -0,0 +1,171 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sifts the extracted classes by their contents, so WARs with several copies of
+ * the same JARs do not get the same classes decompiled over and over
+ *
+ * - Bytes seen before (under any path) => already decompiled, nothing to do:
+ * the source of a class only depends on its bytes, and goes to the same file.
+ *
+ * - Path seen before with other bytes (a conflict) => decompiled on its own into
+ * conflicts/[archive]/, instead of overwriting the first copy's source, and
+ * listed in the conflicts report along with where its source is (that of an
+ * identical copy decompiled already, if any).
+ *
+ * Whichever copy is sifted first wins; with parallel extraction, that is not
+ * necessarily the first one in the archive.
+ */
+public class Sieve {
+
+	public static final String CONFLICTS_DIRECTORY = "conflicts";
+
+	enum Verdict {
+		NEW, DUPLICATE, CONFLICT
+	}
+
+	final String rootLocalName;
+
+	// First copy of every class path, and where the source of the contents seen so
+	// far (any path) goes, relative to the destination directory
+	final Map<String, Copy> firstCopies = new ConcurrentHashMap<>(10000);
+	final Map<String, String> sources = new ConcurrentHashMap<>(10000);
+
+	// Conflicting classes per archive they came from (see variantOf)
+	final Map<String, HeapPantry> conflicts = new ConcurrentHashMap<>();
+	final List<String[]> conflictLines = new ArrayList<>();
+
+	final LongAdder duplicates = new LongAdder();
+
+	public Sieve(String rootLocalName) {
+		this.rootLocalName = rootLocalName;
+	}
+
+	/**
+	 * @param archiveChain names of the nested archives containing the class (see
+	 *                     Potato.handleZipEntry)
+	 */
+	Verdict sift(List<String> archiveChain, String path, byte[] contents) {
+		String hash = Freezer.sha256(contents);
+		Copy copy = new Copy(archiveChain, hash);
+		Copy first = this.firstCopies.putIfAbsent(path, copy);
+
+		if (first == null || first.hash.equals(hash)) {
+			if (first == null && this.sources.putIfAbsent(hash, Potato.javaSourcePath(path)) == null)
+				return Verdict.NEW;
+			this.duplicates.increment();
+			return Verdict.DUPLICATE;
+		}
+
+		String source = CONFLICTS_DIRECTORY + "/" + variantOf(archiveChain) + "/" + Potato.javaSourcePath(path);
+		String seenSource = this.sources.putIfAbsent(hash, source);
+		synchronized (this.conflictLines) {
+			this.conflictLines.add(new String[] { path, archiveOf(first.archiveChain), first.hash,
+					archiveOf(archiveChain), hash, seenSource != null ? seenSource : source });
+		}
+		if (seenSource != null) {
+			this.duplicates.increment();
+			return Verdict.DUPLICATE;
+		}
+		this.conflicts.computeIfAbsent(variantOf(archiveChain), v -> new HeapPantry()).put(path, contents);
+		return Verdict.CONFLICT;
+	}
+
+	/**
+	 * e.g. "app.war > WEB-INF/lib/common.jar"
+	 */
+	String archiveOf(List<String> archiveChain) {
+		StringBuilder archive = new StringBuilder(this.rootLocalName);
+		for (String name : archiveChain) {
+			archive.append(" > ").append(name);
+		}
+		return archive.toString();
+	}
+
+	/**
+	 * Directory (under conflicts/) the sources of a conflicting class go to, e.g.
+	 * "WEB-INF_lib_common.jar!lib_util.jar"
+	 */
+	String variantOf(List<String> archiveChain) {
+		if (archiveChain.isEmpty())
+			return this.rootLocalName;
+		StringBuilder variant = new StringBuilder();
+		for (String name : archiveChain) {
+			if (variant.length() > 0)
+				variant.append('!');
+			variant.append(name.replace('/', '_').replace('\\', '_'));
+		}
+		return variant.toString();
+	}
+
+	/**
+	 * @return the conflicting classes (to be decompiled) per directory under
+	 *         conflicts/
+	 */
+	Map<String, HeapPantry> getConflicts() {
+		return new TreeMap<>(this.conflicts);
+	}
+
+	public int getConflictCount() {
+		synchronized (this.conflictLines) {
+			return this.conflictLines.size();
+		}
+	}
+
+	/**
+	 * Writes the conflicts report (CSV), if there were any conflicts
+	 */
+	void writeReport(Path file) throws IOException {
+		List<String[]> lines;
+		synchronized (this.conflictLines) {
+			lines = new ArrayList<>(this.conflictLines);
+		}
+		if (lines.isEmpty())
+			return;
+		lines.sort((a, b) -> a[0].compareTo(b[0]));
+
+		try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write("Class,First archive,First SHA-256,Archive,SHA-256,Source\r\n");
+			for (String[] line : lines) {
+				for (int i = 0; i < line.length; i++) {
+					if (i > 0)
+						writer.write(',');
+					writer.write('"' + line[i].replace("\"", "\"\"") + '"');
+				}
+				writer.write("\r\n");
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Sieve: %d identical copies of classes skipped, %d same-path conflicts (%d decompiled apart)",
+				this.duplicates.sum(), getConflictCount(),
+				this.conflicts.values().stream().mapToInt(HeapPantry::size).sum());
+	}
+
+	/**
+	 * Where a class path was first seen, and with what contents
+	 */
+	static class Copy {
+		final List<String> archiveChain;
+		final String hash;
+
+		Copy(List<String> archiveChain, String hash) {
+			this.archiveChain = archiveChain;
+			this.hash = hash;
+		}
+	}
+
+}
@@ -0,0 +1,235 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decompiler process started by a Brigade - decompiles the batches it is sent
+ * on stdin and sends back what became of them on stdout (see Brigade for the
+ * messages)
+ *
+ * Classes CFR looks up beyond those of the batch are asked for, as only the
+ * coordinator has all of them (and the archive). Sources are sent back to be
+ * written there.
+ */
+public class SousChef {
+	private static final Logger log = Logger.getLogger(SousChef.class.getName());
+
+	final DataInputStream in;
+	final DataOutputStream out; // (guarded by itself)
+
+	// Classes of the batches being decompiled
+	final HeapPantry classes = new HeapPantry();
+
+	// Classes asked for and not sent yet
+	final Map<Integer, CompletableFuture<byte[]>> fetches = new ConcurrentHashMap<>();
+	final AtomicInteger fetchCount = new AtomicInteger(0);
+
+	Cucumber decompiler;
+
+	public static void main(String[] args) {
+		// stdout is only for the coordinator - anything else printing there (e.g. CFR)
+		// goes to the log
+		FileOutputStream protocol = new FileOutputStream(FileDescriptor.out);
+		System.setOut(System.err);
+
+		try {
+			new SousChef(new FileInputStream(FileDescriptor.in), protocol).work();
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Decompiler process failed", e);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	SousChef(InputStream in, OutputStream out) {
+		this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+	}
+
+	void work() throws Exception {
+		if (this.in.readByte() != Brigade.INIT)
+			throw new IOException("Decompiler process not initialized");
+		int threads = this.in.readInt();
+		Kitchen.decompileTimeoutMillis = this.in.readLong();
+		Kitchen.retryTimedOutClasses = this.in.readBoolean();
+
+		this.decompiler = new Line();
+		if (Kitchen.decompileTimeoutMillis > 0)
+			this.decompiler.eggTimer = new EggTimer(Kitchen.decompileTimeoutMillis) {
+				@Override
+				void timedOut(String path, boolean recovered) {
+					synchronized (SousChef.this.out) {
+						try {
+							SousChef.this.out.writeByte(Brigade.TIMED_OUT);
+							SousChef.this.out.writeUTF(path);
+							SousChef.this.out.writeBoolean(recovered);
+							SousChef.this.out.flush();
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				}
+			};
+
+		try (Stove stove = new Stove(threads)) {
+			synchronized (this.out) {
+				this.out.writeByte(Brigade.READY);
+				this.out.flush();
+			}
+
+			for (;;) {
+				byte message = this.in.readByte();
+				switch (message) {
+				case Brigade.BATCH:
+					int id = this.in.readInt();
+					int count = this.in.readInt();
+					List<String> paths = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						String path = this.in.readUTF();
+						this.classes.put(path, readBytes());
+						paths.add(path);
+					}
+					stove.submit(() -> cook(id, paths));
+					break;
+
+				case Brigade.CLASS:
+					CompletableFuture<byte[]> fetch = this.fetches.remove(this.in.readInt());
+					byte[] contents = readBytes();
+					if (fetch != null)
+						fetch.complete(contents);
+					break;
+
+				case Brigade.QUIT:
+					return;
+
+				default:
+					throw new IOException("Unexpected message: " + message);
+				}
+			}
+		} finally {
+			if (this.decompiler.eggTimer != null)
+				this.decompiler.eggTimer.close();
+		}
+	}
+
+	void cook(int id, List<String> paths) {
+		int failures;
+		try {
+			failures = this.decompiler.chopBatch(paths);
+		} catch (RuntimeException e) {
+			log.log(Level.SEVERE, "Batch decompilation failed: " + paths, e);
+			failures = paths.size();
+		} finally {
+			for (String path : paths) {
+				this.classes.remove(path);
+			}
+		}
+
+		synchronized (this.out) {
+			try {
+				this.out.writeByte(Brigade.DONE);
+				this.out.writeInt(id);
+				this.out.writeInt(failures);
+				this.out.flush();
+			} catch (IOException e) {
+				// Nobody left to tell
+				log.log(Level.SEVERE, "Coordinator gone", e);
+				System.exit(1);
+			}
+		}
+	}
+
+	byte[] readBytes() throws IOException {
+		int length = this.in.readInt();
+		if (length < 0)
+			return null;
+		byte[] contents = new byte[length];
+		this.in.readFully(contents);
+		return contents;
+	}
+
+	/**
+	 * Asks the coordinator for a class (and waits for it)
+	 *
+	 * @return the class, or null if it has none by that path
+	 */
+	byte[] fetch(String path) throws IOException {
+		int id = this.fetchCount.incrementAndGet();
+		CompletableFuture<byte[]> reply = new CompletableFuture<>();
+		this.fetches.put(id, reply);
+		synchronized (this.out) {
+			this.out.writeByte(Brigade.FETCH);
+			this.out.writeInt(id);
+			this.out.writeUTF(path);
+			this.out.flush();
+		}
+
+		try {
+			return reply.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + path);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Decompiler reading from the batches (or the coordinator) and sending the
+	 * sources back
+	 */
+	class Line extends Cucumber {
+		Line() {
+			super(SousChef.this.classes, "");
+		}
+
+		@Override
+		byte[] readClassContents(String path) throws IOException {
+			byte[] contents = this.classes.get(path);
+			if (contents == null)
+				contents = fetch(path);
+			if (contents == null)
+				throw new IOException("Class not found: " + path);
+			return contents;
+		}
+
+		@Override
+		void served(String packageName, String className, long latencyNanos, String javaSource) {
+			byte[] javaBytes = javaSource.getBytes(StandardCharsets.UTF_8);
+			synchronized (SousChef.this.out) {
+				try {
+					SousChef.this.out.writeByte(Brigade.SOURCE);
+					SousChef.this.out.writeUTF(packageName);
+					SousChef.this.out.writeUTF(className);
+					SousChef.this.out.writeLong(latencyNanos);
+					SousChef.this.out.writeInt(javaBytes.length);
+					SousChef.this.out.write(javaBytes); // (flushed with the batch)
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+}
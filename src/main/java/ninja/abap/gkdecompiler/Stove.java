@@ -0,0 +1,101 @@
+package ninja.abap.gkdecompiler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Decompilation engine - a fixed number of burners (worker threads) that only
+ * do CFR work, instead of borrowing the JVM-wide common ForkJoinPool
+ * 
+ * Each burner gets its own CFR driver from Cucumber, so no CFR state is ever
+ * shared between threads.
+ */
+public class Stove implements AutoCloseable {
+	private final Logger log = Logger.getLogger(Stove.class.getName());
+
+	private static final AtomicInteger stoveCount = new AtomicInteger(0);
+
+	final ThreadPoolExecutor executor;
+	final String namePrefix;
+	final AtomicInteger burnerCount = new AtomicInteger(0);
+
+	// How long close waits for the burners to finish what they are doing
+	long closeTimeoutMillis = TimeUnit.MINUTES.toMillis(1);
+
+	public Stove(int burners) {
+		int size = Math.max(1, burners);
+		this.namePrefix = "stove-" + stoveCount.incrementAndGet() + "-burner-";
+		this.executor = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				this::newBurner);
+	}
+
+	public int getBurners() {
+		return this.executor.getMaximumPoolSize();
+	}
+
+	public Future<?> submit(Runnable task) {
+		return this.executor.submit(task);
+	}
+
+	/**
+	 * Cooks every item with the given recipe and waits until all of them are done
+	 * 
+	 * @throws RuntimeException (or Error) the first one the recipe threw, once all
+	 *                          items are done (the others are suppressed by it)
+	 */
+	public <T> void cookAll(Collection<T> items, Consumer<T> recipe) throws InterruptedException {
+		List<T> snapshot = new ArrayList<>(items);
+		CountDownLatch pending = new CountDownLatch(snapshot.size());
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		for (T item : snapshot) {
+			this.executor.execute(() -> {
+				try {
+					recipe.accept(item);
+				} catch (Throwable e) {
+					if (!failure.compareAndSet(null, e))
+						failure.get().addSuppressed(e);
+				} finally {
+					pending.countDown();
+				}
+			});
+		}
+		pending.await();
+
+		// (a recipe is a Consumer, so it only throws unchecked ones)
+		Throwable e = failure.get();
+		if (e instanceof Error)
+			throw (Error) e;
+		if (e != null)
+			throw (RuntimeException) e;
+	}
+
+	@Override
+	public void close() throws InterruptedException {
+		this.executor.shutdown();
+		if (this.executor.awaitTermination(this.closeTimeoutMillis, TimeUnit.MILLISECONDS))
+			return;
+
+		// Stuck (e.g. CFR in an endless loop) => interrupt them and move on (burners are
+		// daemon threads)
+		log.severe(this.executor.getActiveCount() + " burners of " + this.namePrefix.replaceAll("-burner-$", "")
+				+ " still busy after " + this.closeTimeoutMillis + " ms - interrupting them");
+		this.executor.shutdownNow();
+	}
+
+	private Thread newBurner(Runnable runnable) {
+		Thread burner = new Thread(runnable, this.namePrefix + this.burnerCount.incrementAndGet());
+		burner.setDaemon(true); // never keep the JVM (UI) alive
+		return burner;
+	}
+
+}
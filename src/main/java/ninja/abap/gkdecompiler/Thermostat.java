@@ -0,0 +1,224 @@
+package ninja.abap.gkdecompiler;
+
+import java.io.Closeable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Keeps a bake within a heap budget
+ *
+ * The heap in use is taken as what was left after the last GC (from GC
+ * notifications), or what is in use right now if that is less - garbage does
+ * not count, as the next GC gets rid of it anyway. Beyond WARM of the budget,
+ * classes are spilled to disk (see Cellar) and only half of the decompiler
+ * threads may run CFR; beyond HOT, only one of them, and extraction waits for
+ * the decompilers to free some heap (pipelined bake).
+ *
+ * Decompiler threads sent to wait drop their CFR driver, whose type cache is
+ * usually the biggest thing on the heap after the classes themselves.
+ */
+public class Thermostat implements Closeable {
+	private final Logger log = Logger.getLogger(Thermostat.class.getName());
+
+	static final double WARM = 0.7;
+	static final double HOT = 0.85;
+
+	// Heap use is read again at most this often (MemoryMXBean is not free)
+	static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	// Longest extraction waits for heap before asking for a full GC, and then
+	// carrying on regardless (classes go to disk anyway)
+	static final long MAX_WAIT_MILLIS = 2000;
+
+	static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	final long budgetBytes;
+	final int burners;
+
+	volatile long afterGcBytes = -1;
+	volatile long heapBytes;
+	volatile long lastCheckTime = System.nanoTime() - CHECK_INTERVAL_NANOS;
+
+	// Decompiler threads running CFR (guarded by this)
+	int activeBurners = 0;
+
+	final Set<String> heapPools = new HashSet<>();
+	final List<NotificationEmitter> emitters = new ArrayList<>();
+	final NotificationListener gcListener = this::gcDone;
+
+	final LongAdder throttleNanos = new LongAdder();
+	final LongAdder parkedBurners = new LongAdder();
+	final LongAccumulator peakBytes = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param burners decompiler threads that may run CFR when there is heap to
+	 *                spare
+	 */
+	public Thermostat(long budgetBytes, int burners) {
+		long maxBytes = Runtime.getRuntime().maxMemory();
+		if (maxBytes != Long.MAX_VALUE && budgetBytes > maxBytes) {
+			log.warning("Heap budget of " + budgetBytes / 1024 / 1024 + " MB is above the max. heap (-Xmx) of "
+					+ maxBytes / 1024 / 1024 + " MB - using the latter");
+			budgetBytes = maxBytes;
+		}
+		this.budgetBytes = budgetBytes;
+		this.burners = Math.max(1, burners);
+
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				this.heapPools.add(pool.getName());
+		}
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (gc instanceof NotificationEmitter) {
+				((NotificationEmitter) gc).addNotificationListener(this.gcListener, null, null);
+				this.emitters.add((NotificationEmitter) gc);
+			}
+		}
+	}
+
+	void gcDone(Notification notification, Object handback) {
+		if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+			return;
+		try {
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+					.from((CompositeData) notification.getUserData());
+			long bytes = 0;
+			for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+				if (this.heapPools.contains(pool.getKey()))
+					bytes += pool.getValue().getUsed();
+			}
+			this.afterGcBytes = bytes;
+			this.lastCheckTime = System.nanoTime() - CHECK_INTERVAL_NANOS; // (read it again)
+		} catch (RuntimeException e) {
+			log.log(Level.FINE, "Unexpected GC notification", e);
+		}
+
+		// Parked decompilers may run again
+		synchronized (this) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return the heap in use, as far as the budget is concerned
+	 */
+	long heapBytes() {
+		long now = System.nanoTime();
+		if (now - this.lastCheckTime >= CHECK_INTERVAL_NANOS) {
+			long bytes = memory.getHeapMemoryUsage().getUsed();
+			long afterGc = this.afterGcBytes;
+			this.heapBytes = afterGc >= 0 ? Math.min(bytes, afterGc) : bytes;
+			this.peakBytes.accumulate(this.heapBytes);
+			this.lastCheckTime = now;
+		}
+		return this.heapBytes;
+	}
+
+	public boolean isWarm() {
+		return heapBytes() > WARM * this.budgetBytes;
+	}
+
+	public boolean isHot() {
+		return heapBytes() > HOT * this.budgetBytes;
+	}
+
+	/**
+	 * @return how many decompiler threads may run CFR right now
+	 */
+	int allowedBurners() {
+		return isHot() ? 1 : isWarm() ? Math.max(1, this.burners / 2) : this.burners;
+	}
+
+	/**
+	 * Waits (extraction) while the heap is over HOT and relief is on its way
+	 *
+	 * @param relief whether something is still being done that will free heap
+	 *               (e.g. classes waiting to be decompiled)
+	 */
+	public void cool(BooleanSupplier relief) throws InterruptedException {
+		if (!isHot() || !relief.getAsBoolean())
+			return;
+
+		long startTime = System.nanoTime();
+		long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS);
+		try {
+			while (isHot() && relief.getAsBoolean()) {
+				if (System.nanoTime() >= deadline) {
+					// Maybe it is just garbage the GC did not get to yet
+					System.gc();
+					this.lastCheckTime = System.nanoTime() - CHECK_INTERVAL_NANOS;
+					if (isHot())
+						log.fine("Heap budget exceeded - extracting on anyway");
+					return;
+				}
+				Thread.sleep(20);
+			}
+		} finally {
+			this.throttleNanos.add(System.nanoTime() - startTime);
+		}
+	}
+
+	/**
+	 * Takes one of the decompiler threads allowed to run CFR, waiting for one if
+	 * there are not enough of them (to be given back with leaveBurner)
+	 *
+	 * @param parking called before waiting (e.g. to drop the thread's CFR state)
+	 */
+	public synchronized void takeBurner(Runnable parking) throws InterruptedException {
+		if (this.activeBurners >= allowedBurners()) {
+			parking.run();
+			this.parkedBurners.increment();
+			while (this.activeBurners >= allowedBurners()) {
+				wait(50);
+			}
+		}
+		this.activeBurners++;
+	}
+
+	public synchronized void leaveBurner() {
+		this.activeBurners--;
+		notifyAll();
+	}
+
+	@Override
+	public void close() {
+		for (NotificationEmitter emitter : this.emitters) {
+			try {
+				emitter.removeNotificationListener(this.gcListener);
+			} catch (Exception e) {
+				log.log(Level.FINE, "Could not remove GC listener", e);
+			}
+		}
+		this.emitters.clear();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Heap budget: %d MB, peak %d MB (after GC), extraction throttled for %.1f s, "
+				+ "%d decompiler threads parked", this.budgetBytes / 1024 / 1024, this.peakBytes.get() / 1024 / 1024,
+				this.throttleNanos.sum() / 1e9, this.parkedBurners.sum());
+	}
+
+}
@@ -0,0 +1,83 @@
+package ninja.abap.gkdecompiler;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of reusable byte buffers, so extraction does not have to allocate (and
+ * GC) a new buffer for each and every entry
+ */
+public class Tupperware {
+
+	final int bufferSize;
+	final int maxBuffers;
+
+	final Queue<byte[]> shelf = new ConcurrentLinkedQueue<>();
+	final AtomicInteger shelfSize = new AtomicInteger(0);
+
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+
+	public Tupperware(int bufferSize, int maxBuffers) {
+		this.bufferSize = bufferSize;
+		this.maxBuffers = maxBuffers;
+	}
+
+	/**
+	 * @return a pooled buffer (or a new one if the pool is empty) - give it back
+	 *         when done
+	 */
+	public byte[] borrow() {
+		byte[] buffer = this.shelf.poll();
+		if (buffer != null) {
+			this.shelfSize.decrementAndGet();
+			this.hits.increment();
+			return buffer;
+		}
+
+		this.misses.increment();
+		return new byte[this.bufferSize];
+	}
+
+	/**
+	 * Replaces a full buffer by a bigger copy of it, giving the full one back to
+	 * the pool
+	 */
+	public byte[] grow(byte[] full) {
+		this.misses.increment();
+		byte[] bigger = Arrays.copyOf(full, full.length * 2);
+		giveBack(full);
+		return bigger;
+	}
+
+	public void giveBack(byte[] buffer) {
+		// Oversized buffers (see grow) are left to the GC
+		if (buffer.length != this.bufferSize)
+			return;
+
+		if (this.shelfSize.incrementAndGet() <= this.maxBuffers)
+			this.shelf.offer(buffer);
+		else
+			this.shelfSize.decrementAndGet();
+	}
+
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	@Override
+	public String toString() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return String.format("%d/%d pooled buffer hits (%.1f%%), %d KB buffers, max. %d pooled", hits, total,
+				total == 0 ? 0.0 : (100.0 * hits) / total, this.bufferSize / 1024, this.maxBuffers);
+	}
+
+}
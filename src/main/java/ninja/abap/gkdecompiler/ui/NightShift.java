@@ -0,0 +1,476 @@
+package ninja.abap.gkdecompiler.ui;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.regex.Pattern;
+
+import ninja.abap.gkdecompiler.Kitchen;
+import ninja.abap.gkdecompiler.Potato;
+import ninja.abap.gkdecompiler.Stove;
+
+/**
+ * Headless batch mode - bakes several archives at once, e.g. overnight on a
+ * build machine
+ *
+ * All archives share one pool of decompiler threads and one pool of extraction
+ * threads; the biggest archives are started first, so the small ones fill the
+ * gaps at the end instead of a big one starting last and running alone.
+ */
+public class NightShift {
+	private static final Logger log = Logger.getLogger(NightShift.class.getName());
+
+	static final int EXIT_OK = 0;
+	static final int EXIT_FAILED_CLASSES = 1;
+	static final int EXIT_USAGE = 2;
+	static final int EXIT_FAILED_ARCHIVES = 3;
+
+	static final String USAGE = String.join(System.lineSeparator(), //
+			"Usage: java -jar gk-decompiler.jar [options] -d <destination> <archive>...", //
+			"", //
+			"Each archive is baked into <destination>/<archive name>.", //
+			"", //
+			"Patterns (regular expressions, case-insensitive, repeatable):", //
+			"  --extract <regex>        files to extract (default: .*)", //
+			"  --no-extract <regex>     files not to extract", //
+			"  --decompile <regex>      classes to decompile (default: .*gk.+)", //
+			"  --no-decompile <regex>   classes not to decompile", //
+			"  --patterns <file>        read patterns from a file, one per line, as", //
+			"                           \"extract: <regex>\", \"no-extract: <regex>\", etc.", //
+			"", //
+			"Options:", //
+			"  -d, --destination <dir>  output directory (required)", //
+			"  -j, --jobs <n>           archives baked at the same time (default: 2)", //
+			"  -t, --threads <n>        decompiler threads shared by all archives", //
+			"                           (default: number of processors)", //
+			"  --extract-threads <n>    threads walking nested archives, shared by all", //
+			"                           archives (default: 1; with more, the file list", //
+			"                           CSV rows come in a different order each run)", //
+			"  --batch-size <n>         classes per CFR pass (default: " + Kitchen.decompileBatchSize + ")", //
+			"  --queue-depth <n>        decompile while extracting (default: 0 = off;", //
+			"                           each archive on its share of the threads)", //
+			"  --disk-store             keep classes to decompile on disk", //
+			"  --heap-budget-mb <n>     keep the heap of all archives under <n> MB, easing", //
+			"                           off and spilling classes to disk as it fills up", //
+			"  --class-timeout <s>      abandon classes CFR takes longer than <s> seconds", //
+			"                           for, retrying them once with cheaper options", //
+			"  --no-retry               do not retry classes that timed out", //
+			"  --workers <n>            decompile each archive in <n> child JVMs sharing", //
+			"                           its threads (not with --queue-depth)", //
+			"  --worker-options <opts>  JVM options of the child JVMs (e.g. \"-Xmx2g\")", //
+			"  --references             let CFR read classes it does not decompile from", //
+			"                           the archive (better types, slower)", //
+			"  --dedup                  decompile identical classes once, and same-path", //
+			"                           classes with other bytes into conflicts/", //
+			"  --incremental            skip entries that did not change since the last run", //
+			"  --cache <dir>            decompilation cache shared across runs", //
+			"  --cache-max-mb <n>       size cap of the cache (default: "
+					+ Kitchen.decompileCacheMaxBytes / 1024 / 1024 + ")", //
+			"  --gzip-file-list         write the file list CSV gzipped", //
+			"  --output-threads <n>     threads writing files per archive (default: "
+					+ Kitchen.outputThreads + ", 0 = the workers write them)", //
+			"  --no-virtual-threads     use those threads on Java 21+ too, instead of a", //
+			"                           virtual thread per file", //
+			"  --output-archive <type>  pack files and sources into <archive>-sources.zip", //
+			"                           or .jar (type zip or jar) instead of a directory", //
+			"  --compression-level <n>  of the output archive, 0-9 (default: 6)", //
+			"  --log-level <level>      e.g. WARNING, INFO (default), FINE", //
+			"  -h, --help               show this help", //
+			"", //
+			"Exit codes: 0 = OK, 1 = some classes failed to decompile, 2 = usage error,", //
+			"            3 = some archives failed");
+
+	String destination;
+	final List<String> archives = new ArrayList<>();
+	final List<Pattern> extractIncludePatterns = new ArrayList<>();
+	final List<Pattern> extractExcludePatterns = new ArrayList<>();
+	final List<Pattern> decompileIncludePatterns = new ArrayList<>();
+	final List<Pattern> decompileExcludePatterns = new ArrayList<>();
+	int jobs = 2;
+	int threads = Runtime.getRuntime().availableProcessors();
+	int extractThreads = 1;
+	Level logLevel = Level.INFO;
+	boolean help = false;
+
+	public static void main(String[] args) {
+		System.exit(run(args, System.out, System.err));
+	}
+
+	static int run(String[] args, PrintStream out, PrintStream err) {
+		NightShift shift = new NightShift();
+		try {
+			shift.parse(args);
+		} catch (IllegalArgumentException e) {
+			err.println("Error: " + e.getMessage());
+			err.println();
+			err.println(USAGE);
+			return EXIT_USAGE;
+		}
+
+		if (shift.help) {
+			out.println(USAGE);
+			return EXIT_OK;
+		}
+		return shift.work(out);
+	}
+
+	void parse(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (!arg.startsWith("-")) {
+				this.archives.add(arg);
+				continue;
+			}
+
+			switch (arg) {
+			case "-h":
+			case "--help":
+				this.help = true;
+				return;
+			case "-d":
+			case "--destination":
+				this.destination = value(args, ++i, arg);
+				break;
+			case "-j":
+			case "--jobs":
+				this.jobs = number(args, ++i, arg);
+				break;
+			case "-t":
+			case "--threads":
+				this.threads = number(args, ++i, arg);
+				break;
+			case "--extract-threads":
+				this.extractThreads = number(args, ++i, arg);
+				break;
+			case "--extract":
+			case "--no-extract":
+			case "--decompile":
+			case "--no-decompile":
+				addPattern(arg.substring(2), value(args, ++i, arg));
+				break;
+			case "--patterns":
+				readPatterns(value(args, ++i, arg));
+				break;
+			case "--batch-size":
+				Kitchen.decompileBatchSize = number(args, ++i, arg);
+				break;
+			case "--queue-depth":
+				Kitchen.pipelineQueueDepth = number(args, ++i, arg);
+				break;
+			case "--disk-store":
+				Kitchen.diskBackedClassStore = true;
+				break;
+			case "--references":
+				Kitchen.resolveReferencedClasses = true;
+				break;
+			case "--no-references":
+				Kitchen.resolveReferencedClasses = false;
+				break;
+			case "--heap-budget-mb":
+				Kitchen.heapBudgetBytes = number(args, ++i, arg) * 1024L * 1024;
+				break;
+			case "--class-timeout":
+				Kitchen.decompileTimeoutMillis = number(args, ++i, arg) * 1000L;
+				break;
+			case "--no-retry":
+				Kitchen.retryTimedOutClasses = false;
+				break;
+			case "--workers":
+				Kitchen.workerProcesses = number(args, ++i, arg);
+				break;
+			case "--worker-options":
+				Kitchen.workerJvmOptions = value(args, ++i, arg);
+				break;
+			case "--dedup":
+				Kitchen.deduplicateClasses = true;
+				break;
+			case "--no-dedup":
+				Kitchen.deduplicateClasses = false;
+				break;
+			case "--incremental":
+				Kitchen.incrementalBake = true;
+				break;
+			case "--cache":
+				Kitchen.decompileCacheDirectory = value(args, ++i, arg);
+				break;
+			case "--cache-max-mb":
+				Kitchen.decompileCacheMaxBytes = number(args, ++i, arg) * 1024L * 1024;
+				break;
+			case "--gzip-file-list":
+				Kitchen.compressFileList = true;
+				break;
+			case "--output-threads":
+				Kitchen.outputThreads = number(args, ++i, arg);
+				break;
+			case "--no-virtual-threads":
+				Kitchen.virtualThreadOutput = false;
+				break;
+			case "--output-archive":
+				Kitchen.outputArchive = value(args, ++i, arg).toLowerCase(Locale.ROOT);
+				if (!Kitchen.outputArchive.equals("zip") && !Kitchen.outputArchive.equals("jar"))
+					throw new IllegalArgumentException("Invalid output archive type: " + Kitchen.outputArchive);
+				break;
+			case "--compression-level":
+				Kitchen.outputCompressionLevel = number(args, ++i, arg);
+				if (Kitchen.outputCompressionLevel > 9)
+					throw new IllegalArgumentException("Invalid compression level: " + Kitchen.outputCompressionLevel);
+				break;
+			case "--log-level":
+				this.logLevel = Level.parse(value(args, ++i, arg).toUpperCase(Locale.ROOT));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+
+		if (this.destination == null)
+			throw new IllegalArgumentException("No destination directory (-d)");
+		if (this.archives.isEmpty())
+			throw new IllegalArgumentException("No archives");
+		for (String archive : this.archives) {
+			if (!Files.isRegularFile(Paths.get(archive)))
+				throw new IllegalArgumentException("Not a file: " + archive);
+		}
+
+		// Same defaults as the GUI
+		if (this.extractIncludePatterns.isEmpty())
+			addPattern("extract", ".*");
+		if (this.decompileIncludePatterns.isEmpty())
+			addPattern("decompile", ".*gk.+");
+	}
+
+	void readPatterns(String file) {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read patterns file " + file + ": " + e);
+		}
+
+		for (String line : lines) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			int colon = line.indexOf(':');
+			if (colon < 0)
+				throw new IllegalArgumentException("Invalid line in " + file + ": " + line);
+			addPattern(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+		}
+	}
+
+	void addPattern(String kind, String regex) {
+		Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE); // (PatternSyntaxException = usage error)
+		switch (kind) {
+		case "extract":
+			this.extractIncludePatterns.add(pattern);
+			break;
+		case "no-extract":
+			this.extractExcludePatterns.add(pattern);
+			break;
+		case "decompile":
+			this.decompileIncludePatterns.add(pattern);
+			break;
+		case "no-decompile":
+			this.decompileExcludePatterns.add(pattern);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown pattern kind " + kind);
+		}
+	}
+
+	static String value(String[] args, int i, String option) {
+		if (i >= args.length)
+			throw new IllegalArgumentException("Missing value for " + option);
+		return args[i];
+	}
+
+	static int number(String[] args, int i, String option) {
+		String value = value(args, i, option);
+		try {
+			int number = Integer.parseInt(value);
+			if (number >= 0)
+				return number;
+		} catch (NumberFormatException e) {
+			// see below
+		}
+		throw new IllegalArgumentException("Invalid number for " + option + ": " + value);
+	}
+
+	int work(PrintStream out) {
+		setPatterns(Kitchen.extractIncludePatterns, this.extractIncludePatterns);
+		setPatterns(Kitchen.extractExcludePatterns, this.extractExcludePatterns);
+		setPatterns(Kitchen.decompileIncludePatterns, this.decompileIncludePatterns);
+		setPatterns(Kitchen.decompileExcludePatterns, this.decompileExcludePatterns);
+		Kitchen.decompileThreads = Math.max(1, this.threads);
+		Kitchen.extractThreads = Math.max(1, this.extractThreads);
+
+		Logger.getLogger("ninja.abap").setLevel(this.logLevel);
+		for (Handler handler : Logger.getLogger("").getHandlers())
+			handler.setLevel(this.logLevel);
+
+		Handler logFile = null;
+		Stove stove = new Stove(this.threads);
+		ForkJoinPool extractors = this.extractThreads > 1 ? new ForkJoinPool(this.extractThreads) : null;
+		Semaphore spoolBudget = Potato.newSpoolBudget(); // (for all archives, as the extractors)
+		AtomicInteger jobCount = new AtomicInteger(0);
+		ExecutorService shift = Executors.newFixedThreadPool(Math.max(1, this.jobs), runnable -> {
+			Thread thread = new Thread(runnable, "night-shift-job-" + jobCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			logFile = startLogFile();
+
+			// Biggest first
+			List<Job> jobs = new ArrayList<>();
+			Set<String> usedNames = new HashSet<>();
+			for (String archive : this.archives) {
+				jobs.add(new Job(archive, Files.size(Paths.get(archive)), uniqueName(archive, usedNames)));
+			}
+			jobs.sort(Comparator.comparingLong((Job job) -> job.size).reversed());
+			log.info("Night shift: " + jobs.size() + " archives, " + this.jobs + " at a time, " + this.threads
+					+ " threads");
+
+			// Pipelined bakes hold their burners until they are done => each gets its
+			// share, or the next ones would only start decompiling once it is over
+			int burners = Math.max(1, this.threads / Math.max(1, Math.min(this.jobs, jobs.size())));
+			List<Future<?>> futures = new ArrayList<>();
+			for (Job job : jobs) {
+				futures.add(shift.submit(() -> job.bake(stove, burners, extractors, spoolBudget)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+
+			printSummary(out, jobs);
+			if (jobs.stream().anyMatch(job -> job.failure != null))
+				return EXIT_FAILED_ARCHIVES;
+			if (jobs.stream().anyMatch(job -> job.potato.getFailedClasses() > 0))
+				return EXIT_FAILED_CLASSES;
+			return EXIT_OK;
+		} catch (Exception e) {
+			log.log(Level.SEVERE, "Night shift failed", e);
+			return EXIT_FAILED_ARCHIVES;
+		} finally {
+			shift.shutdownNow();
+			if (extractors != null)
+				extractors.shutdownNow();
+			try {
+				stove.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (logFile != null) {
+				Logger.getLogger("ninja.abap").removeHandler(logFile);
+				logFile.close();
+			}
+		}
+	}
+
+	static void setPatterns(List<Pattern> kitchenPatterns, List<Pattern> patterns) {
+		kitchenPatterns.clear();
+		kitchenPatterns.addAll(patterns);
+	}
+
+	/**
+	 * One log file for the whole shift (bakes running at the same time cannot have
+	 * one each, as they log through the same loggers)
+	 */
+	Handler startLogFile() throws IOException {
+		Path destinationPath = Files.createDirectories(Paths.get(this.destination));
+		String currDateTime = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").format(LocalDateTime.now());
+		FileHandler handler = new FileHandler(
+				destinationPath.resolve("gk-decompiler-night-shift-" + currDateTime + ".log").toString());
+		handler.setFormatter(new SimpleFormatter());
+		handler.setLevel(Level.ALL);
+		Logger.getLogger("ninja.abap").addHandler(handler);
+		return handler;
+	}
+
+	/**
+	 * "a/b/archive.war" => "archive" (or "archive_war", "archive_war_2", ... if
+	 * taken)
+	 */
+	static String uniqueName(String archive, Set<String> usedNames) {
+		String fileName = Paths.get(archive).getFileName().toString();
+		int dot = fileName.lastIndexOf('.');
+		String name = dot > 0 ? fileName.substring(0, dot) : fileName;
+		if (!usedNames.add(name) && (dot <= 0 || !usedNames.add(name = fileName.replace('.', '_')))) {
+			String base = name;
+			for (int i = 2; !usedNames.add(name = base + "_" + i); i++)
+				;
+		}
+		return name;
+	}
+
+	void printSummary(PrintStream out, List<Job> jobs) {
+		out.println();
+		out.println(String.format("%-40s %-8s %10s %10s %8s %9s", "Archive", "Status", "Entries", "Classes", "Failed",
+				"Time (s)"));
+		for (Job job : jobs) {
+			String archive = Paths.get(job.archive).getFileName().toString();
+			out.println(String.format("%-40s %-8s %10d %10d %8d %9.1f", archive, job.failure == null ? "OK" : "FAILED",
+					job.potato.getHandledEntries(), job.potato.getDecompiledClasses(), job.potato.getFailedClasses(),
+					job.seconds));
+			if (job.failure != null)
+				out.println("    " + job.failure);
+		}
+	}
+
+	class Job {
+		final String archive;
+		final long size;
+		final Path destination;
+		final Potato potato;
+
+		Exception failure;
+		double seconds;
+
+		Job(String archive, long size, String name) {
+			this.archive = archive;
+			this.size = size;
+			this.destination = Paths.get(NightShift.this.destination, name);
+			this.potato = new Potato(archive, this.destination.toString());
+			this.potato.setSeparateLogFile(false);
+		}
+
+		void bake(Stove stove, int burners, ForkJoinPool extractors, Semaphore spoolBudget) {
+			long startTime = System.nanoTime();
+			log.info("Baking " + this.archive);
+			try {
+				Files.createDirectories(this.destination);
+				this.potato.shareWorkers(stove, burners, extractors, spoolBudget);
+				this.potato.bake();
+			} catch (Exception e) {
+				log.log(Level.SEVERE, "Failed to bake " + this.archive, e);
+				this.failure = e;
+			}
+			this.seconds = (System.nanoTime() - startTime) / 1e9;
+			log.info(String.format("Baked %s in %.1f s", this.archive, this.seconds));
+		}
+	}
+
+}
@@ -6,9 +6,12 @@ import javax.swing.JFrame;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingConstants;
 import javax.swing.UIManager;
 
@@ -35,6 +38,7 @@ import javax.swing.JTabbedPane;
 
 import java.awt.BorderLayout;
 import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.JScrollPane;
 import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
@@ -68,11 +72,27 @@ public class OhMyGod {
 	private JTextArea textExtractExcludeRegex;
 	private JTextArea textDecompileIncludeRegex;
 	private JTextArea textDecompileExcludeRegex;
+	private JSpinner spinnerPipelineQueueDepth;
+	private JSpinner spinnerDecompileThreads;
+	private JSpinner spinnerExtractThreads;
+	private JSpinner spinnerDecompileBatchSize;
+	private JCheckBox checkDiskBackedClassStore;
+	private JCheckBox checkResolveReferencedClasses;
+	private JCheckBox checkIncrementalBake;
+	private JCheckBox checkCompressFileList;
+	private JCheckBox checkOutputArchive;
+	private JTextField textDecompileCacheDirectory;
+	private JSpinner spinnerDecompileCacheMaxMegabytes;
 
 	/**
-	 * Launch the application.
+	 * Launch the application (or the headless batch mode if there are arguments).
 	 */
 	public static void main(String[] args) {
+		if (args.length > 0) {
+			NightShift.main(args);
+			return;
+		}
+
 		EventQueue.invokeLater(new Runnable() {
 			public void run() {
 				try {
@@ -116,27 +136,32 @@ public class OhMyGod {
 	}
 
 	private void bake(String archivePath, String destinationDirectory) {
-		bakeButton.setEnabled(false);
-		progressBar.setValue(0);
-		progressBar.setString("");
+		// (Swing components are only touched from the event dispatch thread)
+		EventQueue.invokeLater(() -> {
+			bakeButton.setEnabled(false);
+			progressBar.setValue(0);
+			progressBar.setString("");
+		});
 
 		try {
 			updateKitchen();
 
 			Potato potato = new Potato(archivePath, destinationDirectory);
-			potato.onProgress((percent, text) -> {
-				progressBar.setValue(percent);
-				progressBar.setString(String.format("%d%% %s", percent, text));
-			});
+			potato.onProgress(snapshot -> {
+				progressBar.setValue(snapshot.percent);
+				progressBar.setString(snapshot.toString());
+			}, EventQueue::invokeLater);
 			potato.bake();
 
-			progressBar.setValue(100);
-			progressBar.setString("Done.");
+			EventQueue.invokeLater(() -> {
+				progressBar.setValue(100);
+				progressBar.setString("Done.");
+			});
 		} catch (Exception e) {
 			e.printStackTrace();
-			JOptionPane.showMessageDialog(frame, e, "Error", JOptionPane.ERROR_MESSAGE);
+			EventQueue.invokeLater(() -> JOptionPane.showMessageDialog(frame, e, "Error", JOptionPane.ERROR_MESSAGE));
 		}
-		bakeButton.setEnabled(true);
+		EventQueue.invokeLater(() -> bakeButton.setEnabled(true));
 	}
 
 	private String chooseArchivePath() throws Exception {
@@ -182,6 +207,19 @@ public class OhMyGod {
 
 		Kitchen.decompileExcludePatterns = Arrays.asList(textDecompileExcludeRegex.getText().split("[\\r\\n]+"))
 				.stream().map(regex -> Pattern.compile(regex, Pattern.CASE_INSENSITIVE)).collect(Collectors.toList());
+
+		Kitchen.pipelineQueueDepth = (Integer) spinnerPipelineQueueDepth.getValue();
+		Kitchen.diskBackedClassStore = checkDiskBackedClassStore.isSelected();
+		Kitchen.resolveReferencedClasses = checkResolveReferencedClasses.isSelected();
+		Kitchen.incrementalBake = checkIncrementalBake.isSelected();
+		Kitchen.compressFileList = checkCompressFileList.isSelected();
+		Kitchen.outputArchive = checkOutputArchive.isSelected() ? "zip" : null;
+		Kitchen.decompileThreads = (Integer) spinnerDecompileThreads.getValue();
+		Kitchen.extractThreads = (Integer) spinnerExtractThreads.getValue();
+		Kitchen.decompileBatchSize = (Integer) spinnerDecompileBatchSize.getValue();
+		String cacheDirectory = textDecompileCacheDirectory.getText().trim();
+		Kitchen.decompileCacheDirectory = cacheDirectory.isEmpty() ? null : cacheDirectory;
+		Kitchen.decompileCacheMaxBytes = (Integer) spinnerDecompileCacheMaxMegabytes.getValue() * 1024L * 1024;
 	}
 
 	/**
@@ -329,6 +367,71 @@ public class OhMyGod {
 		});
 		logLevelPanel.add(comboLogLevel);
 
+		JPanel pipelinePanel = new JPanel();
+		pipelinePanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+		pipelinePanel.setLayout(new FlowLayout(FlowLayout.LEFT, 5, 5));
+		optionsPanel.add(pipelinePanel);
+
+		pipelinePanel.add(new JLabel("Decompile while extracting - queue depth (0 = off):"));
+		this.spinnerPipelineQueueDepth = new JSpinner(new SpinnerNumberModel(0, 0, 100000, 100));
+		pipelinePanel.add(spinnerPipelineQueueDepth);
+
+		JPanel threadsPanel = new JPanel();
+		threadsPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+		threadsPanel.setLayout(new FlowLayout(FlowLayout.LEFT, 5, 5));
+		optionsPanel.add(threadsPanel);
+
+		threadsPanel.add(new JLabel("Extraction threads:"));
+		this.spinnerExtractThreads = new JSpinner(
+				new SpinnerNumberModel(Kitchen.extractThreads, 1, Math.max(256, Kitchen.extractThreads), 1));
+		threadsPanel.add(spinnerExtractThreads);
+
+		threadsPanel.add(new JLabel("Decompiler threads:"));
+		this.spinnerDecompileThreads = new JSpinner(
+				new SpinnerNumberModel(Kitchen.decompileThreads, 1, Math.max(256, Kitchen.decompileThreads), 1));
+		threadsPanel.add(spinnerDecompileThreads);
+
+		threadsPanel.add(new JLabel("Classes per CFR pass:"));
+		this.spinnerDecompileBatchSize = new JSpinner(new SpinnerNumberModel(Kitchen.decompileBatchSize, 1, 10000, 10));
+		threadsPanel.add(spinnerDecompileBatchSize);
+
+		this.checkDiskBackedClassStore = new JCheckBox("Keep classes to decompile on disk (memory-mapped) instead of heap");
+		checkDiskBackedClassStore.setAlignmentX(0);
+		optionsPanel.add(checkDiskBackedClassStore);
+
+		this.checkResolveReferencedClasses = new JCheckBox(
+				"Let the decompiler read referenced (not decompiled) classes from the archive on demand",
+				Kitchen.resolveReferencedClasses);
+		checkResolveReferencedClasses.setAlignmentX(0);
+		optionsPanel.add(checkResolveReferencedClasses);
+
+		this.checkIncrementalBake = new JCheckBox(
+				"Incremental: skip entries that did not change since the last run into the same directory");
+		checkIncrementalBake.setAlignmentX(0);
+		optionsPanel.add(checkIncrementalBake);
+
+		this.checkCompressFileList = new JCheckBox("Write the file list CSV gzipped (.csv.gz)");
+		checkCompressFileList.setAlignmentX(0);
+		optionsPanel.add(checkCompressFileList);
+
+		this.checkOutputArchive = new JCheckBox("Pack files and sources into a single zip (archive-sources.zip)");
+		checkOutputArchive.setAlignmentX(0);
+		optionsPanel.add(checkOutputArchive);
+
+		JPanel cachePanel = new JPanel();
+		cachePanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+		cachePanel.setLayout(new FlowLayout(FlowLayout.LEFT, 5, 5));
+		optionsPanel.add(cachePanel);
+
+		cachePanel.add(new JLabel("Decompilation cache directory (empty = off):"));
+		this.textDecompileCacheDirectory = new JTextField(30);
+		cachePanel.add(textDecompileCacheDirectory);
+
+		cachePanel.add(new JLabel("max. MB:"));
+		this.spinnerDecompileCacheMaxMegabytes = new JSpinner(new SpinnerNumberModel(
+				(int) (Kitchen.decompileCacheMaxBytes / 1024 / 1024), 16, Integer.MAX_VALUE, 256));
+		cachePanel.add(spinnerDecompileCacheMaxMegabytes);
+
 		return optionsPanel;
 	}
 
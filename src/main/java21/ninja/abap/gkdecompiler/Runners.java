@@ -0,0 +1,22 @@
+package ninja.abap.gkdecompiler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Threads to carry files out to the filesystem one at a time, for output stages
+ * that would rather not have a fixed number of I/O threads (see Dumbwaiter)
+ *
+ * Java 21 and later version: a virtual thread per file, which gives up its
+ * carrier thread while the filesystem makes it wait.
+ */
+public class Runners {
+
+	/**
+	 * @return an executor starting a virtual thread per task
+	 */
+	public static ExecutorService hire(String name) {
+		return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+	}
+
+}
@@ -0,0 +1,145 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class BrigadeTest {
+
+	static final List<List<String>> BATCHES = Arrays.asList(
+			Arrays.asList("ninja/abap/HelloWorld1.class", "ninja/abap/HelloWorld2.class"),
+			Arrays.asList("ninja/abap/Broken.class", "ninja/abap/HelloWorld3.class"));
+
+	@Test
+	void testDecompilation() throws Exception {
+		Cucumber cucumber = newDecompiler();
+
+		try (Brigade brigade = new Brigade(2, 1, cucumber)) {
+			assertEquals(1, brigade.cookAll(BATCHES));
+			assertEquals(0, brigade.restarts.get());
+		}
+
+		verifyDecompiled(cucumber);
+	}
+
+	@Test
+	void testRestart() throws Exception {
+		// The first process of each hand dies right away
+		Cucumber cucumber = newDecompiler();
+		AtomicInteger starts = new AtomicInteger(0);
+		Brigade brigade = spy(new Brigade(2, 1, cucumber));
+		doAnswer(invocation -> starts.incrementAndGet() <= 2 ? crashingCommand() : invocation.callRealMethod())
+				.when(brigade).command();
+
+		try {
+			assertEquals(1, brigade.cookAll(BATCHES));
+			assertEquals(2, brigade.restarts.get());
+		} finally {
+			brigade.close();
+		}
+
+		verifyDecompiled(cucumber);
+	}
+
+	@Test
+	void testNoProcessLeft() throws Exception {
+		// Every process dies right away => everything is decompiled here
+		Cucumber cucumber = newDecompiler();
+		Brigade brigade = spy(new Brigade(1, 1, cucumber));
+		doAnswer(invocation -> crashingCommand()).when(brigade).command();
+
+		try {
+			assertEquals(1, brigade.cookAll(BATCHES));
+			assertEquals(Brigade.MAX_RESTARTS, brigade.restarts.get());
+		} finally {
+			brigade.close();
+		}
+
+		verifyDecompiled(cucumber);
+	}
+
+	@Test
+	void testPoisonBatch() throws Exception {
+		// The process dies on one of the two batches it decompiles at once => only that
+		// one is given up on
+		Cucumber cucumber = newDecompiler();
+		Brigade brigade = spy(new Brigade(1, 2, cucumber));
+		List<String> command = brigade.command();
+		command.set(command.size() - 1, Saboteur.class.getName());
+		doReturn(command).when(brigade).command();
+
+		try {
+			assertEquals(1, brigade.cookAll(Arrays.asList(Arrays.asList(Saboteur.POISON),
+					Arrays.asList("ninja/abap/HelloWorld1.class", "ninja/abap/HelloWorld2.class"),
+					Arrays.asList("ninja/abap/HelloWorld3.class"))));
+			assertTrue(brigade.restarts.get() <= Brigade.MAX_RESTARTS);
+		} finally {
+			brigade.close();
+		}
+
+		verifyDecompiled(cucumber);
+	}
+
+	/**
+	 * Decompiler process that dies on batches with the poison class
+	 */
+	public static class Saboteur {
+		static final String POISON = "ninja/abap/Poison.class";
+
+		public static void main(String[] args) throws Exception {
+			FileOutputStream protocol = new FileOutputStream(FileDescriptor.out);
+			System.setOut(System.err);
+			new SousChef(new FileInputStream(FileDescriptor.in), protocol) {
+				@Override
+				void cook(int id, List<String> paths) {
+					if (paths.contains(POISON))
+						Runtime.getRuntime().halt(3);
+					super.cook(id, paths);
+				}
+			}.work();
+			System.exit(0);
+		}
+	}
+
+	private static List<String> crashingCommand() {
+		return Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-version");
+	}
+
+	private static Cucumber newDecompiler() {
+		Map<String, byte[]> classes = Arrays.asList("HelloWorld1", "HelloWorld2", "HelloWorld3").stream()
+				.collect(Collectors.toMap(name -> "ninja/abap/" + name + ".class", name -> {
+					try {
+						return Files.readAllBytes(Paths.get("src/test/resources/" + name + ".class"));
+					} catch (IOException e) {
+						return fail();
+					}
+				}));
+		classes.put("ninja/abap/Broken.class", new byte[] { 1, 2, 3 });
+		classes.put(Saboteur.POISON, new byte[] { 4, 5, 6 });
+
+		Cucumber cucumber = spy(new Cucumber(classes, "dummy-destination-path"));
+		doNothing().when(cucumber).saveJavaFile(any(), any(), any());
+		return cucumber;
+	}
+
+	private static void verifyDecompiled(Cucumber cucumber) {
+		verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld1"), contains("Hello World!"));
+		verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld2"), contains("Hello World!"));
+		verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld3"), contains("Hello World!"));
+	}
+
+}
@@ -0,0 +1,75 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class ColanderTest {
+
+	static final List<String> REGEXES = Arrays.asList(".*", ".+", ".*gk.+", ".*META-INF.+", "ninja[.]abap[.].+",
+			"com\\.sap\\..*", ".*\\.txt", ".*[.]properties", "a.*b.+c", "WEB-INF/lib/.*", "exact/Name.class", "",
+			".*Test[0-9]*", "(foo|bar)/.*", "x.y", ".*\\$.*", "[^/]+/.*", ".+.*x.+.*");
+
+	static final List<String> NAMES = Arrays.asList("", "a", "META-INF/MANIFEST.MF", "meta-inf/x", "WEB-INF/lib/a.jar",
+			"web-inf/lib/", "com/sap/gk/Foo.class", "com.sap.gk.Foo", "com.SAP.Gk.Bar", "ninja.abap.HelloWorld1",
+			"ninja.abap.", "readme.txt", "a/b.TXT", "x/y.properties", "abc", "ab", "aXbYc", "exact/Name.class",
+			"Exact/name.CLASS", "FooTest12", "foo/bar", "bar/baz", "xzy", "x.y", "Outer$Inner", "gk", "xgkx", "ü/gk/ä",
+			"line\nbreak/gk.x", "x", "xx", "xxx");
+
+	@Test
+	void testSameAsRegex() {
+		Random random = new Random(42);
+		for (int round = 0; round < 500; round++) {
+			List<Pattern> include = randomPatterns(random);
+			List<Pattern> exclude = randomPatterns(random);
+			for (char separator : new char[] { '/', '.' }) {
+				Colander colander = new Colander(include, exclude, separator);
+				for (String name : NAMES) {
+					// Twice: the 2nd time may use the memoized decision of the directory
+					for (int i = 0; i < 2; i++) {
+						boolean expected = include.stream().anyMatch(p -> p.matcher(name).matches())
+								&& exclude.stream().noneMatch(p -> p.matcher(name).matches());
+						assertEquals(expected, colander.accepts(name), () -> "'" + name + "' include "
+								+ include + " exclude " + exclude);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	void testCompilation() {
+		assertNull(Colander.Rule.compile(Pattern.compile("(foo|bar)/.*")).tokens);
+		assertEquals(Arrays.asList("ninja.abap.", 1), Colander.Rule.compile(Pattern.compile("ninja[.]abap[.].+")).tokens);
+		assertEquals(Arrays.asList(0, "gk", 1),
+				Colander.Rule.compile(Pattern.compile(".*GK.+", Pattern.CASE_INSENSITIVE)).tokens);
+	}
+
+	@Test
+	void testExtensions() {
+		assertEquals("a/b/C", Colander.classPathOf("a/b/C.class"));
+		assertEquals("a/b/C", Colander.classPathOf("a/b/C.CLASS"));
+		assertNull(Colander.classPathOf(".class"));
+		assertNull(Colander.classPathOf("a/b/C.java"));
+		assertTrue(Colander.isArchive("lib/x.JAR"));
+		assertTrue(Colander.isArchive("x.war"));
+		assertFalse(Colander.isArchive(".zip"));
+	}
+
+	private List<Pattern> randomPatterns(Random random) {
+		List<String> regexes = new ArrayList<>(REGEXES);
+		Collections.shuffle(regexes, random);
+		return regexes.subList(0, random.nextInt(4)).stream()
+				.map(regex -> Pattern.compile(regex, random.nextBoolean() ? Pattern.CASE_INSENSITIVE : 0))
+				.collect(Collectors.toList());
+	}
+
+}
@@ -0,0 +1,103 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ConveyorTest {
+
+	@Test
+	void testGroups() throws Exception {
+		Cucumber cucumber = spy(new Cucumber(new HeapPantry(), "dummy-destination-path"));
+		List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+		doAnswer(invocation -> {
+			batches.add(new ArrayList<>(invocation.getArgument(0)));
+			return 0;
+		}).when(cucumber).chopBatch(any());
+
+		List<String> a = Arrays.asList("a.jar");
+		List<String> b = Arrays.asList("b.jar");
+		try (Stove stove = new Stove(1)) {
+			Conveyor conveyor = new Conveyor(cucumber, stove, 2, 2);
+			conveyor.start();
+
+			// Inner classes wait for their outer class (up to the belt's depth)
+			conveyor.put(a, "a/Foo$1.class");
+			conveyor.put(b, "a/Foo$Bar.class");
+			conveyor.put(a, "a/Bar.class");
+			conveyor.put(a, "a/Foo.class");
+			assertEquals(1, conveyor.waitingEntries);
+
+			// Too late => on its own, once the archive is walked
+			conveyor.put(a, "a/Foo$2.class");
+			conveyor.serve(a);
+			assertEquals(1, conveyor.waitingEntries);
+
+			conveyor.finish();
+			assertEquals(5, conveyor.doneEntries.get());
+			assertEquals(0, conveyor.waitingEntries);
+		}
+
+		// Foo and Foo$1 in the same CFR pass, every class decompiled once
+		assertTrue(batches.stream().anyMatch(batch -> batch.containsAll(Arrays.asList("a/Foo.class", "a/Foo$1.class"))),
+				batches.toString());
+		List<String> chopped = new ArrayList<>();
+		batches.forEach(chopped::addAll);
+		Collections.sort(chopped);
+		assertEquals(Arrays.asList("a/Bar.class", "a/Foo$1.class", "a/Foo$2.class", "a/Foo$Bar.class", "a/Foo.class"),
+				chopped);
+	}
+
+	@Test
+	void testSharedStove() throws Exception {
+		Cucumber cucumber = spy(new Cucumber(new HeapPantry(), "dummy-destination-path"));
+		doReturn(0).when(cucumber).chopBatch(any());
+
+		try (Stove stove = new Stove(2)) {
+			// Two pipelined bakes at the same time, each on its share of the burners
+			Conveyor first = new Conveyor(cucumber, stove, 1, 1, 1);
+			Conveyor second = new Conveyor(cucumber, stove, 1, 1, 1);
+			first.start();
+			second.start();
+			assertEquals(1, first.workers.size());
+
+			// The second one gets done while the first is still going
+			List<String> a = Arrays.asList("a.jar");
+			second.put(a, "a/Foo.class");
+			second.put(a, "a/Bar.class");
+			second.finish();
+			assertEquals(2, second.doneEntries.get());
+
+			first.finish();
+		}
+	}
+
+	@Test
+	void testError() throws Exception {
+		Cucumber cucumber = spy(new Cucumber(new HeapPantry(), "dummy-destination-path"));
+		doThrow(new StackOverflowError()).when(cucumber).chopBatch(any());
+
+		try (Stove stove = new Stove(1)) {
+			Conveyor conveyor = new Conveyor(cucumber, stove, 1, 1);
+			conveyor.start();
+
+			// The worker keeps draining the belt (or the puts would block)
+			List<String> a = Arrays.asList("a.jar");
+			conveyor.put(a, "a/Foo.class");
+			conveyor.put(a, "a/Bar.class");
+			conveyor.put(a, "a/Baz.class");
+			conveyor.serve(a);
+
+			conveyor.finish();
+			assertEquals(3, conveyor.doneEntries.get());
+			assertEquals(3, conveyor.failedEntries.get());
+		}
+	}
+
+}
@@ -6,25 +6,22 @@ import static org.mockito.Mockito.*;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class CucumberTest {
 
 	@Test
 	void testDecompilation() throws Exception {
-		Map<String, byte[]> classes = Arrays.asList("HelloWorld1", "HelloWorld2", "HelloWorld3").stream()
-				.collect(Collectors.toMap(name -> "ninja/abap/" + name + ".class", name -> {
-					try {
-						return Files.readAllBytes(Paths.get("src/test/resources/" + name + ".class"));
-					} catch (IOException e) {
-						return fail();
-					}
-				}));
+		Map<String, byte[]> classes = readHelloWorldClasses();
 
 		Cucumber cucumber = spy(new Cucumber(classes, "dummy-destination-path"));
 		doNothing().when(cucumber).saveJavaFile(any(), any(), any());
@@ -42,4 +39,95 @@ public class CucumberTest {
 		verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld3"), contains("Hello World!"));
 	}
 
+	@Test
+	void testBatchDecompilation() throws Exception {
+		Map<String, byte[]> classes = readHelloWorldClasses();
+		classes.put("ninja/abap/Broken.class", new byte[] { 1, 2, 3 });
+
+		Cucumber cucumber = spy(new Cucumber(classes, "dummy-destination-path"));
+		doNothing().when(cucumber).saveJavaFile(any(), any(), any());
+
+		int failures = cucumber.chopBatch(Arrays.asList("ninja/abap/Broken.class", "ninja/abap/HelloWorld1.class",
+				"ninja/abap/HelloWorld2.class", "ninja/abap/HelloWorld3.class"));
+
+		assertEquals(1, failures);
+		verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld1"), contains("Hello World!"));
+		verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld2"), contains("Hello World!"));
+		verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld3"), contains("Hello World!"));
+	}
+
+	@Test
+	void testDecompilationCache(@TempDir Path cacheDir) throws Exception {
+		Map<String, byte[]> classes = readHelloWorldClasses();
+		List<String> paths = Arrays.asList("ninja/abap/HelloWorld1.class", "ninja/abap/HelloWorld2.class",
+				"ninja/abap/HelloWorld3.class");
+
+		// First run fills the cache
+		Cucumber first = spy(new Cucumber(classes, "dummy-destination-path"));
+		doNothing().when(first).saveJavaFile(any(), any(), any());
+		first.freezer = new Freezer(cacheDir.toString(), 1024 * 1024, Collections.emptyMap());
+		assertEquals(0, first.chopBatch(paths));
+		assertEquals(3, first.freezer.stores.sum());
+
+		// Second run (e.g. another bake) only writes the cached sources
+		Cucumber second = spy(new Cucumber(classes, "dummy-destination-path"));
+		doNothing().when(second).saveJavaFile(any(), any(), any());
+		second.freezer = new Freezer(cacheDir.toString(), 1024 * 1024, Collections.emptyMap());
+		assertEquals(0, second.chopBatch(paths));
+
+		assertEquals(3, second.freezer.hits.sum());
+		verify(second, never()).driver();
+		verify(second, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld1"), contains("Hello World!"));
+		verify(second, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld2"), contains("Hello World!"));
+		verify(second, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld3"), contains("Hello World!"));
+	}
+
+	@Test
+	void testTimeout() throws Exception {
+		Map<String, byte[]> classes = readHelloWorldClasses();
+
+		// Warm CFR up first - a cold pass may take longer than the budget on a busy
+		// machine
+		Cucumber warmUp = spy(new Cucumber(classes, "dummy-destination-path"));
+		doNothing().when(warmUp).saveJavaFile(any(), any(), any());
+		warmUp.chopBatch(Arrays.asList("ninja/abap/HelloWorld1.class", "ninja/abap/HelloWorld3.class"));
+
+		Cucumber cucumber = spy(new Cucumber(classes, "dummy-destination-path"));
+		doNothing().when(cucumber).saveJavaFile(any(), any(), any());
+		cucumber.eggTimer = new EggTimer(1000);
+		try {
+			// HelloWorld2 gets stuck with the default options
+			doAnswer(invocation -> {
+				Cucumber.Batch batch = invocation.getArgument(0);
+				if (batch.paths.contains("ninja/abap/HelloWorld2.class"))
+					EggTimerTest.sleep(5000);
+				return invocation.callRealMethod();
+			}).when(cucumber).pass(any(), isNull());
+
+			int failures = cucumber.chopBatch(Arrays.asList("ninja/abap/HelloWorld1.class",
+					"ninja/abap/HelloWorld2.class", "ninja/abap/HelloWorld3.class"));
+
+			assertEquals(0, failures);
+			assertEquals(Collections.singletonMap("ninja/abap/HelloWorld2.class", true),
+					cucumber.eggTimer.timedOutClasses);
+			verify(cucumber, times(1)).pass(any(), same(Cucumber.CHEAP_OPTIONS));
+			verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld1"), contains("Hello World!"));
+			verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld2"), contains("Hello World!"));
+			verify(cucumber, times(1)).saveJavaFile(eq("ninja.abap"), eq("HelloWorld3"), contains("Hello World!"));
+		} finally {
+			cucumber.eggTimer.close();
+		}
+	}
+
+	private Map<String, byte[]> readHelloWorldClasses() {
+		return Arrays.asList("HelloWorld1", "HelloWorld2", "HelloWorld3").stream()
+				.collect(Collectors.toMap(name -> "ninja/abap/" + name + ".class", name -> {
+					try {
+						return Files.readAllBytes(Paths.get("src/test/resources/" + name + ".class"));
+					} catch (IOException e) {
+						return fail();
+					}
+				}));
+	}
+
 }
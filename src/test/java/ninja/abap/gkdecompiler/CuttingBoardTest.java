@@ -0,0 +1,47 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class CuttingBoardTest {
+
+	@ParameterizedTest
+	@ValueSource(strings = { "src/test/resources/hello-world.jar", "src/test/resources/hello-world.war" })
+	void testSameAsZipFile(String path) throws Exception {
+		try (ZipFile zipFile = new ZipFile(path); CuttingBoard board = CuttingBoard.open(path)) {
+			List<? extends ZipEntry> expected = Collections.list(zipFile.entries());
+			List<ZipEntry> actual = board.entries();
+
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getName(), actual.get(i).getName());
+				assertEquals(expected.get(i).getCrc(), actual.get(i).getCrc());
+				assertEquals(expected.get(i).getSize(), actual.get(i).getSize());
+				try (InputStream expectedStream = zipFile.getInputStream(expected.get(i));
+						InputStream actualStream = board.getInputStream(actual.get(i))) {
+					assertArrayEquals(readAll(expectedStream), readAll(actualStream), actual.get(i).getName());
+				}
+			}
+		}
+	}
+
+	private byte[] readAll(InputStream stream) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int read;
+		while ((read = stream.read(buffer)) != -1)
+			out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+
+}
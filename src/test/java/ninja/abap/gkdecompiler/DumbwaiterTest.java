@@ -0,0 +1,92 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class DumbwaiterTest {
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void testWrites(boolean threadPerFile, @TempDir Path directory) throws Exception {
+		byte[] small = "class A {}".getBytes(StandardCharsets.UTF_8);
+		byte[] large = new byte[300 * 1024]; // grows the pooled buffer
+		byte[] huge = new byte[Dumbwaiter.MAX_ORDER_BYTES + 12345]; // written by the sender
+		new Random(1).nextBytes(large);
+		new Random(2).nextBytes(huge);
+
+		// Longer than what will replace it
+		Path truncated = directory.resolve("a/b/Truncated.java");
+		Files.createDirectories(truncated.getParent());
+		Files.write(truncated, new byte[10000]);
+
+		// (virtual threads on Java 21+, plain ones otherwise)
+		ExecutorService runners = null;
+		if (threadPerFile) {
+			runners = Runners.hire("test-runner");
+			if (runners == null)
+				runners = Executors.newCachedThreadPool();
+		}
+		Dumbwaiter waiter = new Dumbwaiter(2, 4, 64 * 1024, runners);
+		waiter.send(directory.resolve("a/b/A.java"), small);
+		waiter.send(truncated, small);
+		assertEquals(large.length, waiter.send(directory.resolve("c/large.bin"), new ByteArrayInputStream(large)));
+		assertEquals(huge.length, waiter.send(directory.resolve("c/d/huge.bin"), new ByteArrayInputStream(huge)));
+
+		// Same path over and over => the last one wins
+		for (int i = 0; i < 100; i++) {
+			waiter.send(directory.resolve("META-INF/MANIFEST.MF"), ("Version: " + i).getBytes(StandardCharsets.UTF_8));
+		}
+		waiter.close();
+
+		assertArrayEquals(small, Files.readAllBytes(directory.resolve("a/b/A.java")));
+		assertArrayEquals(small, Files.readAllBytes(truncated));
+		assertArrayEquals(large, Files.readAllBytes(directory.resolve("c/large.bin")));
+		assertArrayEquals(huge, Files.readAllBytes(directory.resolve("c/d/huge.bin")));
+		assertEquals("Version: 99",
+				new String(Files.readAllBytes(directory.resolve("META-INF/MANIFEST.MF")), StandardCharsets.UTF_8));
+
+		assertEquals(0, waiter.getQueueDepth());
+		assertTrue(waiter.lastOrders.isEmpty());
+		assertTrue(waiter.getMaxLatencyMillis() > 0);
+		assertTrue(waiter.knownDirectories.contains(directory.resolve("a/b")));
+		assertTrue(waiter.knownDirectories.contains(directory.resolve("a")));
+		assertEquals(waiter.queueKilobytes, waiter.room.availablePermits());
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void testHugeFileAfterSmallOne(boolean threadPerFile, @TempDir Path directory) throws Exception {
+		byte[] small = "small".getBytes(StandardCharsets.UTF_8);
+		byte[] huge = new byte[Dumbwaiter.MAX_ORDER_BYTES + 1];
+		new Random(3).nextBytes(huge);
+		Path file = directory.resolve("same.bin");
+
+		ExecutorService runners = threadPerFile ? Executors.newCachedThreadPool() : null;
+		Dumbwaiter waiter = new Dumbwaiter(1, 4, 64 * 1024, runners) {
+			@Override
+			void deliver(Order order) throws IOException {
+				EggTimerTest.sleep(200); // (still queued when the huge one is sent)
+				super.deliver(order);
+			}
+		};
+		waiter.send(file, small);
+		waiter.send(file, new ByteArrayInputStream(huge)); // written by the sender, after the small one
+		waiter.close();
+
+		assertArrayEquals(huge, Files.readAllBytes(file));
+		assertEquals(0, waiter.getQueueDepth());
+	}
+
+}
@@ -0,0 +1,58 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class EggTimerTest {
+
+	@Test
+	void testBudget() throws Exception {
+		try (EggTimer eggTimer = new EggTimer(100)) {
+			// Within budget, on the same cook every time
+			AtomicLong start = new AtomicLong(System.nanoTime());
+			eggTimer.time(() -> {
+			}, start::get);
+			ExecutorService cook = eggTimer.cooks.get();
+			eggTimer.time(() -> {
+			}, start::get);
+			assertSame(cook, eggTimer.cooks.get());
+
+			// Longer than the budget, but finishing classes every now and then
+			start.set(System.nanoTime());
+			eggTimer.time(() -> {
+				for (int i = 0; i < 5; i++) {
+					sleep(50);
+					start.set(System.nanoTime());
+				}
+			}, start::get);
+			assertEquals(0, eggTimer.timeouts.sum());
+
+			// Stuck => abandoned, and the next pass gets a new cook
+			start.set(System.nanoTime());
+			assertThrows(TimeoutException.class, () -> eggTimer.time(() -> sleep(2000), start::get));
+			assertEquals(1, eggTimer.timeouts.sum());
+			assertNull(eggTimer.cooks.get());
+			assertTrue(cook.isShutdown());
+
+			start.set(System.nanoTime());
+			// (CFR failures are thrown as they are)
+			assertThrows(IllegalStateException.class, () -> eggTimer.time(() -> {
+				throw new IllegalStateException("CFR failed");
+			}, start::get));
+		}
+	}
+
+	static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class InventoryTest {
+
+	@Test
+	void testEscaping(@TempDir Path destination) throws Exception {
+		Path csv = destination.resolve("file_list.csv");
+		try (Inventory inventory = new Inventory(csv, false)) {
+			inventory.add("a/\"quoted\", with comma.txt", "root.war", true, false);
+			inventory.add("ünï/cödé/日本/🍔.class", "lib/x.jar", false, true);
+		}
+
+		List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+		assertEquals(Arrays.asList("Path,Archive (parent),Extracted?,Decompiled?",
+				"\"a/\"\"quoted\"\", with comma.txt\",\"root.war\",\"X\",\"\"",
+				"\"ünï/cödé/日本/🍔.class\",\"lib/x.jar\",\"\",\"X\""), lines);
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void testConcurrentRows(boolean compressed, @TempDir Path destination) throws Exception {
+		Path csv = destination.resolve(compressed ? "file_list.csv.gz" : "file_list.csv");
+		int threads = 4;
+		int rowsPerThread = 50_000; // more than fits in the buffer and the queue
+
+		try (Inventory inventory = new Inventory(csv, compressed)) {
+			Thread[] producers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				int thread = t;
+				producers[t] = new Thread(() -> {
+					try {
+						for (int i = 0; i < rowsPerThread; i++)
+							inventory.add("dir/file-" + thread + "-" + i, "root.jar", true, false);
+					} catch (Exception e) {
+						fail(e);
+					}
+				});
+				producers[t].start();
+			}
+			for (Thread producer : producers)
+				producer.join();
+		}
+
+		byte[] contents = Files.readAllBytes(csv);
+		if (compressed) {
+			try (InputStream in = new GZIPInputStream(Files.newInputStream(csv))) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1)
+					out.write(buffer, 0, read);
+				contents = out.toByteArray();
+			}
+		}
+		String[] lines = new String(contents, StandardCharsets.UTF_8).split("\r\n");
+		Set<String> unique = new HashSet<>(Arrays.asList(lines));
+		assertEquals(1 + threads * rowsPerThread, lines.length);
+		assertEquals(lines.length, unique.size());
+		assertTrue(unique.contains("\"dir/file-3-49999\",\"root.jar\",\"X\",\"\""));
+	}
+
+}
@@ -0,0 +1,91 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class KitchenTimerTest {
+
+	@Test
+	void testSnapshots() throws Exception {
+		KitchenTimer timer = new KitchenTimer(10);
+		timer.extract.start(1000);
+
+		// Counted from many threads
+		ExecutorService workers = Executors.newFixedThreadPool(4);
+		for (int i = 0; i < 500; i++) {
+			workers.execute(() -> {
+				timer.extract.item("a/b/C.class");
+				timer.extract.bytes(100);
+				timer.extract.done(1);
+			});
+		}
+		workers.shutdown();
+		assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+
+		Thread.sleep(5);
+		KitchenTimer.Snapshot snapshot = timer.snapshot(System.nanoTime());
+		assertEquals("extract", snapshot.phase);
+		assertEquals(25, snapshot.percent); // half of the extraction
+		assertEquals(500, snapshot.items);
+		assertEquals(50000, snapshot.bytes);
+		assertEquals("Extracting a/b/C.class", snapshot.text);
+		assertTrue(snapshot.itemsPerSecond > 0);
+		assertTrue(snapshot.etaSeconds >= 0);
+
+		timer.extract.finish();
+		timer.decompile.start(0);
+		timer.decompile.addTotal(10);
+		timer.decompile.done(5);
+		snapshot = timer.snapshot(System.nanoTime());
+		assertEquals("decompile", snapshot.phase);
+		assertEquals(75, snapshot.percent);
+
+		timer.decompile.finish();
+		assertEquals(100, timer.snapshot(System.nanoTime()).percent);
+	}
+
+	@Test
+	void testListeners() throws Exception {
+		KitchenTimer timer = new KitchenTimer(1);
+		ExecutorService listenerThread = Executors.newSingleThreadExecutor();
+		List<String> threads = new CopyOnWriteArrayList<>();
+		AtomicInteger slowCalls = new AtomicInteger(0);
+		CountDownLatch release = new CountDownLatch(1);
+
+		timer.addListener(snapshot -> threads.add(Thread.currentThread().getName()), Runnable::run);
+		timer.addListener(snapshot -> {
+			// Busy => the following snapshots are skipped, not queued
+			slowCalls.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, listenerThread);
+
+		timer.extract.start(10);
+		timer.start();
+		Thread.sleep(100);
+		assertEquals(1, slowCalls.get());
+		release.countDown();
+
+		timer.extract.finish();
+		timer.close();
+		listenerThread.shutdown();
+		assertTrue(listenerThread.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertTrue(threads.size() > 3);
+		assertEquals("kitchen-timer", threads.get(0));
+		assertTrue(slowCalls.get() >= 2); // (at least the last snapshot)
+	}
+
+}
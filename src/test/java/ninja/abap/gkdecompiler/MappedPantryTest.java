@@ -0,0 +1,41 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MappedPantryTest {
+
+	@Test
+	void testPutAndGet(@TempDir Path destination) throws Exception {
+		byte[] small = "small class".getBytes();
+		byte[] big = new byte[MappedPantry.SEGMENT_SIZE + 10]; // needs a segment of its own
+		big[big.length - 1] = 42;
+
+		try (MappedPantry pantry = new MappedPantry(destination.toString())) {
+			pantry.put("a/Small.class", small);
+			pantry.put("a/Big.class", big);
+			pantry.put("a/Small2.class", small);
+
+			assertEquals(3, pantry.size());
+			assertArrayEquals(small, pantry.get("a/Small.class"));
+			assertArrayEquals(big, pantry.get("a/Big.class"));
+			assertArrayEquals(small, pantry.get("a/Small2.class"));
+			assertNull(pantry.get("a/Missing.class"));
+
+			pantry.remove("a/Small.class");
+			assertNull(pantry.get("a/Small.class"));
+			assertEquals(2, pantry.paths().size());
+		}
+
+		try (Stream<Path> files = Files.list(destination)) {
+			assertEquals(0, files.count(), "temporary class file should be gone");
+		}
+	}
+
+}
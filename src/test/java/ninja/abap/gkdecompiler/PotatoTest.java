@@ -3,9 +3,19 @@ package ninja.abap.gkdecompiler;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
@@ -29,7 +39,7 @@ public class PotatoTest {
 	void testExtraction(String path) throws Exception {
 		Potato potato = spy(new Potato(path, "dummy-destination-path"));
 		doNothing().when(potato).extractFile(any(), any());
-		doNothing().when(potato).extractClass(any(), any());
+		doNothing().when(potato).extractClass(any(), any(), anyLong());
 		doNothing().when(potato).startNewLogFile();
 		doNothing().when(potato).createCsvFile();
 
@@ -39,10 +49,243 @@ public class PotatoTest {
 		verify(potato, atLeastOnce()).addCsvEntry(eq("META-INF/MANIFEST.MF"), contains("hello-world."), eq(true), eq(false));
 		verify(potato, atLeastOnce()).extractFile(eq("META-INF/ninja/abap/text/lorem-ipsum2.txt"), notNull());
 
-		verify(potato, atLeastOnce()).extractClass(eq("ninja/abap/HelloWorld1.class"), notNull());
-		verify(potato, atLeastOnce()).extractClass(eq("ninja/abap/HelloWorld2.class"), notNull());
-		verify(potato, atLeastOnce()).extractClass(eq("ninja/abap/HelloWorld3.class"), notNull());
+		verify(potato, atLeastOnce()).extractClass(eq("ninja/abap/HelloWorld1.class"), notNull(), anyLong());
+		verify(potato, atLeastOnce()).extractClass(eq("ninja/abap/HelloWorld2.class"), notNull(), anyLong());
+		verify(potato, atLeastOnce()).extractClass(eq("ninja/abap/HelloWorld3.class"), notNull(), anyLong());
 		verify(potato, atLeastOnce()).addCsvEntry(eq("ninja/abap/HelloWorld3.class"), contains("hello-world3."), eq(false), eq(true));
 	}
 
+	@ParameterizedTest
+	@ValueSource(ints = { 1, 4 })
+	void testParallelExtraction(int threads) throws Exception {
+		int defaultThreads = Kitchen.extractThreads;
+		Kitchen.extractThreads = threads;
+		try {
+			Potato potato = spy(new Potato("src/test/resources/hello-world.war", "dummy-destination-path"));
+			doNothing().when(potato).extractFile(any(), any());
+			doNothing().when(potato).startNewLogFile();
+			doNothing().when(potato).extractClass(any(), any(), anyLong());
+			doNothing().when(potato).createCsvFile();
+
+			potato.bake();
+
+			// Every nested archive ([WEB-INF/]lib/hello-world.jar > lib/hello-world2.jar > ...)
+			verify(potato, times(6)).walkArchive(any(), any(), any());
+			verify(potato, times(2)).extractClass(eq("ninja/abap/HelloWorld1.class"), notNull(), anyLong());
+			verify(potato, times(2)).extractClass(eq("ninja/abap/HelloWorld2.class"), notNull(), anyLong());
+			verify(potato, times(2)).extractClass(eq("ninja/abap/HelloWorld3.class"), notNull(), anyLong());
+			verify(potato, atLeastOnce()).addCsvEntry(eq("ninja/abap/HelloWorld3.class"), contains("hello-world3."),
+					eq(false), eq(true));
+		} finally {
+			Kitchen.extractThreads = defaultThreads;
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "src/test/resources/hello-world.jar", "src/test/resources/hello-world.war" })
+	void testPipelinedBake(String path, @TempDir Path destination) throws Exception {
+		Kitchen.pipelineQueueDepth = 1;
+		try {
+			Potato potato = spy(new Potato(path, destination.toString()));
+			doNothing().when(potato).extractFile(any(), any());
+			doNothing().when(potato).startNewLogFile();
+
+			potato.bake();
+
+			assertTrue(Files.exists(destination.resolve("ninja/abap/HelloWorld1.java")));
+			assertTrue(Files.exists(destination.resolve("ninja/abap/HelloWorld2.java")));
+			assertTrue(Files.exists(destination.resolve("ninja/abap/HelloWorld3.java")));
+			assertTrue(potato.classFiles.isEmpty());
+		} finally {
+			Kitchen.pipelineQueueDepth = 0;
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = { "src/test/resources/hello-world.jar", "src/test/resources/hello-world.war" })
+	void testIncrementalBake(String path, @TempDir Path destination) throws Exception {
+		Kitchen.incrementalBake = true;
+		try {
+			Potato firstBake = spy(new Potato(path, destination.toString()));
+			doNothing().when(firstBake).startNewLogFile();
+			firstBake.bake();
+			assertEquals(0, firstBake.leftovers.skippedEntries.sum());
+			assertTrue(Files.exists(destination.resolve("ninja/abap/HelloWorld3.java")));
+
+			// Nothing changed, but one output is gone
+			Files.delete(destination.resolve("ninja/abap/HelloWorld3.java"));
+			Potato secondBake = spy(new Potato(path, destination.toString()));
+			doNothing().when(secondBake).startNewLogFile();
+			secondBake.bake();
+
+			verify(secondBake, never()).storeClass(eq("ninja/abap/HelloWorld1.class"), any());
+			verify(secondBake, atLeastOnce()).storeClass(eq("ninja/abap/HelloWorld3.class"), any());
+			verify(secondBake, never()).extractFile(eq("META-INF/ninja/abap/text/lorem-ipsum2.txt"), any());
+			assertTrue(secondBake.leftovers.skippedEntries.sum() > 0);
+			assertTrue(Files.exists(destination.resolve("ninja/abap/HelloWorld3.java")));
+		} finally {
+			Kitchen.incrementalBake = false;
+		}
+	}
+
+	@Test
+	void testIncrementalInnerClass(@TempDir Path destination) throws Exception {
+		byte[] helloWorld1 = Files.readAllBytes(Paths.get("src/test/resources/HelloWorld1.class"));
+		byte[] helloWorld2 = Files.readAllBytes(Paths.get("src/test/resources/HelloWorld2.class"));
+		byte[] helloWorld3 = Files.readAllBytes(Paths.get("src/test/resources/HelloWorld3.class"));
+		Path jar = destination.resolve("inner.jar");
+		Path out = Files.createDirectories(destination.resolve("out"));
+
+		Kitchen.incrementalBake = true;
+		try {
+			writeJar(jar, helloWorld1, helloWorld2, helloWorld3);
+			Potato firstBake = spy(new Potato(jar.toString(), out.toString()));
+			doNothing().when(firstBake).startNewLogFile();
+			firstBake.bake();
+
+			// Only an inner class changed => its outer class (same source) is decompiled
+			// again too, but not the other class
+			writeJar(jar, helloWorld1, helloWorld3, helloWorld3);
+			Potato secondBake = spy(new Potato(jar.toString(), out.toString()));
+			doNothing().when(secondBake).startNewLogFile();
+			secondBake.bake();
+			verify(secondBake, times(1)).storeClass(eq("ninja/abap/HelloWorld1.class"), any());
+			verify(secondBake, times(1)).storeClass(eq("ninja/abap/HelloWorld1$1.class"), any());
+			verify(secondBake, never()).storeClass(eq("ninja/abap/HelloWorld3.class"), any());
+			assertEquals(1, secondBake.leftovers.skippedEntries.sum());
+
+			// An inner class is gone => same
+			writeJar(jar, helloWorld1, null, helloWorld3);
+			Potato thirdBake = spy(new Potato(jar.toString(), out.toString()));
+			doNothing().when(thirdBake).startNewLogFile();
+			thirdBake.bake();
+			verify(thirdBake, times(1)).storeClass(eq("ninja/abap/HelloWorld1.class"), any());
+			verify(thirdBake, never()).storeClass(eq("ninja/abap/HelloWorld3.class"), any());
+
+			// Nothing changed => nothing decompiled
+			Potato fourthBake = spy(new Potato(jar.toString(), out.toString()));
+			doNothing().when(fourthBake).startNewLogFile();
+			fourthBake.bake();
+			verify(fourthBake, never()).storeClass(any(), any());
+		} finally {
+			Kitchen.incrementalBake = false;
+		}
+	}
+
+	private static void writeJar(Path jar, byte[] outer, byte[] inner, byte[] other) throws Exception {
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(jar))) {
+			zip.putNextEntry(new ZipEntry("ninja/abap/HelloWorld1.class"));
+			zip.write(outer);
+			if (inner != null) {
+				zip.putNextEntry(new ZipEntry("ninja/abap/HelloWorld1$1.class"));
+				zip.write(inner);
+			}
+			zip.putNextEntry(new ZipEntry("ninja/abap/HelloWorld3.class"));
+			zip.write(other);
+		}
+	}
+
+	@Test
+	void testOutputArchive(@TempDir Path destination) throws Exception {
+		Kitchen.outputArchive = "jar";
+		try {
+			Potato potato = spy(new Potato("src/test/resources/hello-world.war", destination.toString()));
+			doNothing().when(potato).startNewLogFile();
+
+			potato.bake();
+
+			assertFalse(Files.exists(destination.resolve("ninja")));
+			assertFalse(Files.exists(destination.resolve("META-INF")));
+			try (ZipFile sources = new ZipFile(destination.resolve("hello-world-sources.jar").toFile())) {
+				assertNotNull(sources.getEntry("ninja/abap/HelloWorld1.java"));
+				assertNotNull(sources.getEntry("ninja/abap/HelloWorld3.java"));
+				assertNotNull(sources.getEntry("META-INF/MANIFEST.MF"));
+				assertNotNull(sources.getEntry("META-INF/ninja/abap/text/lorem-ipsum2.txt"));
+			}
+		} finally {
+			Kitchen.outputArchive = null;
+		}
+	}
+
+	@Test
+	void testDeduplication(@TempDir Path destination) throws Exception {
+		// Two copies of the same JAR, and one with other bytes under the same path
+		byte[] helloWorld1 = Files.readAllBytes(Paths.get("src/test/resources/HelloWorld1.class"));
+		byte[] helloWorld2 = Files.readAllBytes(Paths.get("src/test/resources/HelloWorld2.class"));
+		Path war = destination.resolve("copies.war");
+		try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(war))) {
+			for (String jar : new String[] { "WEB-INF/lib/a.jar", "WEB-INF/lib/b.jar", "WEB-INF/lib/c.jar" }) {
+				zip.putNextEntry(new ZipEntry(jar));
+				ZipOutputStream nested = new ZipOutputStream(zip);
+				nested.putNextEntry(new ZipEntry("ninja/abap/HelloWorld1.class"));
+				nested.write(jar.endsWith("c.jar") ? helloWorld2 : helloWorld1);
+				nested.finish();
+				zip.closeEntry();
+			}
+		}
+
+		int defaultThreads = Kitchen.extractThreads;
+		Kitchen.extractThreads = 1; // (the first copy is the first one in the archive)
+		Kitchen.deduplicateClasses = true;
+		try {
+			Files.createDirectories(destination.resolve("out"));
+			Potato potato = spy(new Potato(war.toString(), destination.resolve("out").toString()));
+			doNothing().when(potato).startNewLogFile();
+			potato.bake();
+
+			assertEquals(2, potato.getDecompiledClasses());
+			assertEquals(1, potato.sieve.duplicates.sum());
+			assertTrue(Files.exists(destination.resolve("out/ninja/abap/HelloWorld1.java")));
+			assertTrue(Files.exists(destination.resolve("out/conflicts/WEB-INF_lib_c.jar/ninja/abap/HelloWorld2.java")));
+
+			String report = new String(Files.readAllBytes(destination.resolve("out/conflicts_copies.war.csv")),
+					StandardCharsets.UTF_8);
+			assertTrue(report.contains("\"ninja/abap/HelloWorld1.class\",\"copies.war > WEB-INF/lib/a.jar\""), report);
+			assertTrue(report.contains("\"copies.war > WEB-INF/lib/c.jar\""), report);
+		} finally {
+			Kitchen.extractThreads = defaultThreads;
+			Kitchen.deduplicateClasses = false;
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 0, 1 })
+	void testHeapBudget(int queueDepth, @TempDir Path destination) throws Exception {
+		// Way over budget from the start => every class is spilled, one CFR pass at a time
+		Kitchen.heapBudgetBytes = 1024;
+		Kitchen.pipelineQueueDepth = queueDepth;
+		try {
+			Potato potato = spy(new Potato("src/test/resources/hello-world.war", destination.toString()));
+			doNothing().when(potato).startNewLogFile();
+
+			potato.bake();
+
+			assertTrue(Files.exists(destination.resolve("ninja/abap/HelloWorld1.java")));
+			assertTrue(Files.exists(destination.resolve("ninja/abap/HelloWorld3.java")));
+			assertEquals(0, potato.getFailedClasses());
+			assertEquals(6, ((Cellar) potato.classFiles).spilledClasses.sum()); // (two copies of hello-world.jar)
+		} finally {
+			Kitchen.heapBudgetBytes = 0;
+			Kitchen.pipelineQueueDepth = 0;
+		}
+	}
+
+	@Test
+	void testReceipt(@TempDir Path destination) throws Exception {
+		Potato potato = spy(new Potato("src/test/resources/hello-world.war", destination.toString()));
+		doNothing().when(potato).startNewLogFile();
+
+		potato.bake();
+
+		String receipt = new String(Files.readAllBytes(destination.resolve("receipt_hello-world.war.json")),
+				StandardCharsets.UTF_8);
+		assertTrue(receipt.contains("\"archive\": \"hello-world.war\""), receipt);
+		assertTrue(receipt.contains("\"extract\": {"), receipt);
+		assertTrue(receipt.contains("\"decompile\": {"), receipt);
+		assertTrue(receipt.contains("\"entries\": " + potato.getHandledEntries()), receipt);
+		assertTrue(receipt.contains("\"failedClasses\": 0"), receipt);
+		assertTrue(receipt.contains("\"class\": \"ninja.abap.HelloWorld3\""), receipt);
+		assertTrue(potato.receipt.bytesWritten.sum() > 0);
+	}
+
 }
@@ -0,0 +1,81 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReceiptTest {
+
+	@Test
+	void testLatencies() {
+		Receipt receipt = new Receipt("test.jar", 3);
+		long[] millis = { 0, 1, 3, 3, 100, 50, 20000 };
+		for (int i = 0; i < millis.length; i++) {
+			receipt.decompiled("a.C" + i, millis[i] * 1_000_000 + 1);
+		}
+
+		assertEquals(1, receipt.latencyBuckets.get(0)); // < 1 ms
+		assertEquals(1, receipt.latencyBuckets.get(1)); // 1-2 ms
+		assertEquals(2, receipt.latencyBuckets.get(2)); // 2-4 ms
+		assertEquals(1, receipt.latencyBuckets.get(6)); // 32-64 ms
+		assertEquals(1, receipt.latencyBuckets.get(7)); // 64-128 ms
+		assertEquals(1, receipt.latencyBuckets.get(Receipt.LATENCY_BUCKETS - 1));
+
+		List<Receipt.Timing> slowest = receipt.slowest();
+		assertEquals(3, slowest.size());
+		assertEquals("a.C6", slowest.get(0).className);
+		assertEquals("a.C4", slowest.get(1).className);
+		assertEquals("a.C5", slowest.get(2).className);
+	}
+
+	@Test
+	void testPeakHeap() {
+		Receipt first = new Receipt("first.jar", 0);
+		try {
+			long[] ballast = new long[4 * 1024 * 1024]; // 32 MB
+			first.start("extract");
+			first.stop("extract");
+			assertEquals(0, ballast[ballast.length - 1]);
+			ballast = null;
+			System.gc();
+
+			// Another bake starting does not touch the peak of the first one
+			long peak = first.peakHeapBytes.get();
+			assertTrue(peak >= 32L * 1024 * 1024, Long.toString(peak));
+			new Receipt("second.jar", 0).close();
+			assertTrue(first.peakHeapBytes.get() >= peak);
+		} finally {
+			first.close();
+		}
+		assertTrue(first.emitters.isEmpty());
+	}
+
+	@Test
+	void testWrite(@TempDir Path directory) throws Exception {
+		Receipt receipt = new Receipt("odd \"name\"\\.jar", 10);
+		receipt.start("extract");
+		receipt.inflated(1000);
+		receipt.written(1000, System.nanoTime(), receipt.writeStarted());
+		receipt.stop("extract");
+		receipt.decompiled("a.B", 5_000_000);
+
+		Path file = directory.resolve("receipt.json");
+		receipt.write(file, 10, 1, 0);
+		String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).replaceAll("\\s+", "");
+
+		assertTrue(json.startsWith("{\"archive\":\"odd\\\"name\\\"\\\\.jar\","), json);
+		assertTrue(json.contains("\"phases\":{\"extract\":{\"wallMs\":"), json);
+		assertTrue(json.contains("\"write\":{\"wallMs\":"), json);
+		assertTrue(json.contains("\"files\":1}},\"bytesInflated\":1000,\"bytesWritten\":1000,\"entries\":10,"), json);
+		assertTrue(json.contains("\"decompileLatencyMs\":{\"4-8\":1},\"slowestClasses\":[{\"class\":\"a.B\",\"ms\":5}],"),
+				json);
+		assertTrue(json.endsWith("}"), json);
+	}
+
+}
@@ -0,0 +1,63 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ScaleTest {
+
+	@Test
+	void testWeight() throws Exception {
+		byte[] helloWorld = Files.readAllBytes(Paths.get("src/test/resources/HelloWorld1.class"));
+		byte[] options = readResource("/org/benf/cfr/reader/util/getopt/OptionsImpl.class"); // (huge <clinit>)
+
+		// Code counts on top of the size, more so for long methods
+		assertTrue(Scale.weightOf(helloWorld) > helloWorld.length + 2 * Scale.METHOD_WEIGHT);
+		assertTrue((double) Scale.weightOf(options) / options.length > (double) Scale.weightOf(helloWorld)
+				/ helloWorld.length);
+
+		// Not a class file => just its size
+		assertEquals(3, Scale.weightOf(new byte[] { 1, 2, 3 }));
+		assertEquals(helloWorld.length / 2, Scale.weightOf(Arrays.copyOf(helloWorld, helloWorld.length / 2)));
+	}
+
+	@Test
+	void testSchedule() {
+		Scale scale = new Scale();
+		for (String path : Arrays.asList("a/A.class", "a/B.class", "a/C.class", "b/D.class", "b/D$1.class",
+				"c/E.class")) {
+			scale.weights.put(path, 10L);
+		}
+		scale.weights.put("c/F.class", 1000L);
+		scale.weights.put("b/D$2.class", 100L);
+
+		// 1160 in total on 2 threads => batches of about 72, inner classes stay with D
+		List<List<String>> batches = scale.schedule(scale.weights.keySet(), 50, 2);
+		assertEquals(Arrays.asList(Arrays.asList("c/E.class", "c/F.class"),
+				Arrays.asList("b/D$1.class", "b/D$2.class", "b/D.class"),
+				Arrays.asList("a/A.class", "a/B.class", "a/C.class")), batches);
+
+		// Unknown classes get a default weight
+		assertEquals(Scale.DEFAULT_WEIGHT, scale.weightOf("x/Y.class"));
+	}
+
+	static byte[] readResource(String name) throws IOException {
+		try (InputStream in = ScaleTest.class.getResourceAsStream(name)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		}
+	}
+
+}
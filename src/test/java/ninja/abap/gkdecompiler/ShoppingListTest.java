@@ -0,0 +1,66 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class ShoppingListTest {
+
+	@ParameterizedTest
+	@ValueSource(strings = { "src/test/resources/hello-world.jar", "src/test/resources/hello-world.war" })
+	void testFetchFromNestedArchives(String path) throws Exception {
+		Potato potato = spy(new Potato(path, "dummy-destination-path"));
+		doNothing().when(potato).extractFile(any(), any());
+		doNothing().when(potato).extractClass(any(), any(), anyLong());
+		potato.references = new ShoppingList(path, 1024);
+
+		// No decompile patterns => every class is only noted down
+		potato.extract();
+
+		ShoppingList references = potato.references;
+		List<Path> spools;
+		try {
+			// Each nested archive (and its parents) is spooled once
+			Set<List<String>> nestedArchives = new HashSet<>();
+			for (String name : new String[] { "HelloWorld1", "HelloWorld2", "HelloWorld3" }) {
+				List<String> archiveChain = references.index.get("ninja/abap/" + name + ".class").archiveChain;
+				for (int depth = 1; depth <= archiveChain.size(); depth++) {
+					nestedArchives.add(archiveChain.subList(0, depth));
+				}
+			}
+
+			for (String name : new String[] { "HelloWorld1", "HelloWorld2", "HelloWorld3" }) {
+				byte[] expected = Files.readAllBytes(Paths.get("src/test/resources/" + name + ".class"));
+				assertArrayEquals(expected, references.fetch("ninja/abap/" + name + ".class"));
+				assertArrayEquals(expected, references.fetch("ninja/abap/" + name + ".class")); // cached
+			}
+			assertNull(references.fetch("java/lang/String.class"));
+			assertEquals(3, references.fetches.sum());
+			assertEquals(3, references.cacheHits.sum());
+			assertEquals(nestedArchives, references.spools.keySet());
+
+			// Later classes of a spooled archive come from the same file
+			references.cache.clear();
+			spools = new ArrayList<>(references.spools.values());
+			assertArrayEquals(Files.readAllBytes(Paths.get("src/test/resources/HelloWorld3.class")),
+					references.fetch("ninja/abap/HelloWorld3.class"));
+			assertEquals(spools, new ArrayList<>(references.spools.values()));
+		} finally {
+			references.close();
+		}
+		for (Path spool : spools) {
+			assertFalse(Files.exists(spool));
+		}
+	}
+
+}
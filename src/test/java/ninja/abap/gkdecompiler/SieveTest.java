@@ -0,0 +1,56 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SieveTest {
+
+	@Test
+	void testSift(@TempDir Path directory) throws Exception {
+		byte[] original = "original".getBytes(StandardCharsets.UTF_8);
+		byte[] patched = "patched".getBytes(StandardCharsets.UTF_8);
+		List<String> common = Arrays.asList("WEB-INF/lib/common.jar");
+		List<String> other = Arrays.asList("lib/other.jar", "lib/common-patched.jar");
+
+		Sieve sieve = new Sieve("app.war");
+		assertEquals(Sieve.Verdict.NEW, sieve.sift(common, "a/B.class", original));
+		assertEquals(Sieve.Verdict.DUPLICATE, sieve.sift(Arrays.asList("lib/common.jar"), "a/B.class", original));
+		assertEquals(Sieve.Verdict.DUPLICATE, sieve.sift(common, "shaded/a/B.class", original));
+		assertEquals(Sieve.Verdict.CONFLICT, sieve.sift(other, "a/B.class", patched));
+		assertEquals(Sieve.Verdict.DUPLICATE, sieve.sift(Collections.emptyList(), "a/B.class", patched));
+
+		assertEquals(3, sieve.duplicates.sum());
+		assertEquals(2, sieve.getConflictCount());
+		assertEquals(Collections.singleton("lib_other.jar!lib_common-patched.jar"), sieve.getConflicts().keySet());
+		assertArrayEquals(patched, sieve.getConflicts().get("lib_other.jar!lib_common-patched.jar").get("a/B.class"));
+
+		Path report = directory.resolve("conflicts.csv");
+		sieve.writeReport(report);
+		List<String> lines = Files.readAllLines(report);
+		assertEquals(3, lines.size());
+		assertTrue(lines.get(1).startsWith("\"a/B.class\",\"app.war > WEB-INF/lib/common.jar\","), lines.get(1));
+		assertTrue(lines.get(1).contains("\"app.war > lib/other.jar > lib/common-patched.jar\""), lines.get(1));
+		assertTrue(lines.get(1).endsWith(",\"conflicts/lib_other.jar!lib_common-patched.jar/a/B.java\""), lines.get(1));
+		// (same bytes as the previous conflict => same source)
+		assertTrue(lines.get(2).endsWith(",\"app.war\",\"" + Freezer.sha256(patched)
+				+ "\",\"conflicts/lib_other.jar!lib_common-patched.jar/a/B.java\""), lines.get(2));
+	}
+
+	@Test
+	void testNoConflicts(@TempDir Path directory) throws Exception {
+		Sieve sieve = new Sieve("app.jar");
+		sieve.sift(Collections.emptyList(), "a/B.class", new byte[] { 1 });
+		sieve.writeReport(directory.resolve("conflicts.csv"));
+		assertFalse(Files.exists(directory.resolve("conflicts.csv")));
+	}
+
+}
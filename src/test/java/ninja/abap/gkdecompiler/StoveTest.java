@@ -0,0 +1,77 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class StoveTest {
+
+	@Test
+	void testCookAll() throws Exception {
+		Set<String> burners = ConcurrentHashMap.newKeySet();
+		AtomicInteger sum = new AtomicInteger(0);
+		try (Stove stove = new Stove(2)) {
+			assertEquals(2, stove.getBurners());
+			stove.cookAll(Arrays.asList(1, 2, 3, 4, 5), item -> {
+				sum.addAndGet(item);
+				burners.add(Thread.currentThread().getName());
+				assertTrue(Thread.currentThread().isDaemon());
+			});
+			// (all done once cookAll returns)
+			assertEquals(15, sum.get());
+		}
+		assertTrue(burners.stream().allMatch(name -> name.matches("stove-\\d+-burner-[12]")), burners.toString());
+	}
+
+	@Test
+	void testCookAllError() throws Exception {
+		AtomicInteger cooked = new AtomicInteger(0);
+		try (Stove stove = new Stove(2)) {
+			// Thrown once every item is done (instead of lost on its burner)
+			StackOverflowError error = assertThrows(StackOverflowError.class,
+					() -> stove.cookAll(Arrays.asList(1, 2, 3, 4), item -> {
+						cooked.incrementAndGet();
+						if (item % 2 == 0)
+							throw new StackOverflowError("item " + item);
+					}));
+			assertEquals(4, cooked.get());
+			assertEquals(1, error.getSuppressed().length);
+
+			// The burners are still there for the next ones
+			stove.cookAll(Arrays.asList(5), item -> cooked.incrementAndGet());
+			assertEquals(5, cooked.get());
+		}
+	}
+
+	@Test
+	void testClose() throws Exception {
+		Stove stove = new Stove(1);
+		stove.close();
+		assertTrue(stove.executor.isTerminated());
+
+		// Stuck burner => interrupted once the timeout is over
+		stove = new Stove(1);
+		stove.closeTimeoutMillis = 100;
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		stove.submit(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+		});
+		started.await();
+		stove.close();
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+	}
+
+}
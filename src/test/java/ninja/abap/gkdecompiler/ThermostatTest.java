@@ -0,0 +1,88 @@
+package ninja.abap.gkdecompiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ThermostatTest {
+
+	@Test
+	void testHot() throws Exception {
+		// Whatever the tests use is way over budget
+		Thermostat thermostat = new Thermostat(1024, 4);
+		try {
+			assertTrue(thermostat.isWarm());
+			assertTrue(thermostat.isHot());
+			assertEquals(1, thermostat.allowedBurners());
+
+			// Only one thread may run CFR - the second one waits (parked) for the first
+			AtomicBoolean parked = new AtomicBoolean(false);
+			CountDownLatch secondTook = new CountDownLatch(1);
+			thermostat.takeBurner(() -> fail("Nobody else was running"));
+			Thread second = new Thread(() -> {
+				try {
+					thermostat.takeBurner(() -> parked.set(true));
+					secondTook.countDown();
+					thermostat.leaveBurner();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			second.start();
+			assertFalse(secondTook.await(200, TimeUnit.MILLISECONDS));
+			assertTrue(parked.get());
+
+			thermostat.leaveBurner();
+			assertTrue(secondTook.await(5, TimeUnit.SECONDS));
+			second.join();
+
+			// Extraction waits as long as there is relief on its way
+			long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+			thermostat.cool(() -> System.nanoTime() < until);
+			assertTrue(System.nanoTime() >= until);
+			assertTrue(thermostat.throttleNanos.sum() > 0);
+			thermostat.cool(() -> false); // (nothing to wait for)
+		} finally {
+			thermostat.close();
+		}
+	}
+
+	@Test
+	void testCool() throws Exception {
+		Thermostat thermostat = new Thermostat(Long.MAX_VALUE, 4);
+		try {
+			assertFalse(thermostat.isWarm());
+			assertEquals(4, thermostat.allowedBurners());
+			for (int i = 0; i < 4; i++)
+				thermostat.takeBurner(() -> fail("Heap is not short"));
+		} finally {
+			thermostat.close();
+		}
+	}
+
+	@Test
+	void testCellar(@TempDir Path destination) throws Exception {
+		Thermostat hot = new Thermostat(1024, 1);
+		try (Cellar cellar = new Cellar(hot, destination.toString())) {
+			cellar.put("a/B.class", new byte[] { 1, 2, 3 });
+			assertEquals(1, cellar.spilledClasses.sum());
+			assertTrue(cellar.heap.isEmpty());
+			assertArrayEquals(new byte[] { 1, 2, 3 }, cellar.get("a/B.class"));
+			assertEquals(1, cellar.size());
+			assertTrue(cellar.paths().contains("a/B.class"));
+
+			cellar.remove("a/B.class");
+			assertNull(cellar.get("a/B.class"));
+			assertTrue(cellar.isEmpty());
+		} finally {
+			hot.close();
+		}
+	}
+
+}
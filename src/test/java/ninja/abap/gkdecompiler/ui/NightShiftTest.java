@@ -0,0 +1,69 @@
+package ninja.abap.gkdecompiler.ui;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ninja.abap.gkdecompiler.Kitchen;
+
+public class NightShiftTest {
+	List<Pattern> extractIncludePatterns;
+	List<Pattern> decompileIncludePatterns;
+	int decompileThreads;
+	int extractThreads;
+
+	@BeforeEach
+	void beforeEach() {
+		this.extractIncludePatterns = new ArrayList<>(Kitchen.extractIncludePatterns);
+		this.decompileIncludePatterns = new ArrayList<>(Kitchen.decompileIncludePatterns);
+		this.decompileThreads = Kitchen.decompileThreads;
+		this.extractThreads = Kitchen.extractThreads;
+	}
+
+	@AfterEach
+	void afterEach() {
+		NightShift.setPatterns(Kitchen.extractIncludePatterns, this.extractIncludePatterns);
+		NightShift.setPatterns(Kitchen.decompileIncludePatterns, this.decompileIncludePatterns);
+		Kitchen.extractExcludePatterns.clear();
+		Kitchen.decompileExcludePatterns.clear();
+		Kitchen.decompileThreads = this.decompileThreads;
+		Kitchen.extractThreads = this.extractThreads;
+	}
+
+	@Test
+	void testBatch(@TempDir Path destination) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int exitCode = NightShift.run(new String[] { "-d", destination.toString(), "-j", "2", "-t", "2", //
+				"--extract-threads", "2", "--extract", ".*META-INF.+", "--decompile", "ninja[.]abap[.].+", //
+				"src/test/resources/hello-world.jar", "src/test/resources/hello-world.war" }, new PrintStream(out),
+				System.err);
+
+		assertEquals(NightShift.EXIT_OK, exitCode, out.toString());
+		assertTrue(Files.exists(destination.resolve("hello-world/META-INF/MANIFEST.MF")));
+		assertTrue(Files.exists(destination.resolve("hello-world_war/META-INF/MANIFEST.MF")));
+		assertTrue(Files.exists(destination.resolve("hello-world/ninja/abap/HelloWorld1.java")));
+		assertTrue(Files.exists(destination.resolve("hello-world_war/ninja/abap/HelloWorld3.java")));
+		assertTrue(out.toString().contains("hello-world.war"));
+	}
+
+	@Test
+	void testUsage() {
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		assertEquals(NightShift.EXIT_USAGE, NightShift.run(new String[0], System.out, new PrintStream(err)));
+		assertTrue(err.toString().contains("Usage:"));
+		assertEquals(NightShift.EXIT_USAGE,
+				NightShift.run(new String[] { "-d", "x", "--threads", "many", "a.jar" }, System.out, System.err));
+	}
+
+}